@@ -1,3 +1,5 @@
+import com.sleepycat.je.CacheMode;
+
 import java.util.ArrayList;
 import java.util.List;
 
@@ -19,7 +21,7 @@ public class CrawlerConfig {
     private int maxPages = -1;
 
     /**
-     * Delay between two requests, default is 1 millisecond
+     * Delay between two requests to the same host, default is 1 second
      */
     private int visitDelay = 1000;
 
@@ -55,11 +57,21 @@ public class CrawlerConfig {
     private int proxyPort;
 
     /**
-     * Path to save JSON results
+     * Path to save JSON results, one page per line
      * It's only needed for offline mode
      */
     private String filePath = "./tmp.dat";
 
+    /**
+     * Buffer size in characters for writing JSON results, default is 64 KB
+     */
+    private int writeBufferSize = 64 * 1024;
+
+    /**
+     * When JSON results are forced to disk, default is after each flush
+     */
+    private ResultWriter.FsyncPolicy fsyncPolicy = ResultWriter.FsyncPolicy.ON_FLUSH;
+
     /**
      * Path to save database files
      */
@@ -68,15 +80,81 @@ public class CrawlerConfig {
     /**
      * Switch for offline mode and online mode
      * In offline mode, the crawler will store all the JSON objects in disk
-     * In online mode, the crawler will pass the JSON objects to analyzer
+     * In online mode, the crawler will only pass the pages to analyzers subscribed to the monitor,
+     * and it refuses to start if none is subscribed
      */
     private boolean offline = true;
 
     /**
      * Whether the crawler will work from last run
+     * A folder of another format or shard count is refused, a crawl without it starts over
      */
     private boolean resumable = false;
 
+    /**
+     * Durability of each commit in resumable mode, default is written but not synced
+     */
+    private GroupCommitter.Durability commitDurability = GroupCommitter.Durability.WRITE_NO_SYNC;
+
+    /**
+     * Maximum milliseconds before pending commits are synced, default is 1 second
+     */
+    private int groupCommitInterval = 1000;
+
+    /**
+     * Maximum number of pending commits before they are synced
+     */
+    private int groupCommitSize = 1000;
+
+    /**
+     * Bytes of the database cache shared by all the frontier databases, default is 64MB
+     */
+    private long cacheSize = 64L * 1024 * 1024;
+
+    /**
+     * Eviction policy of the database cache
+     */
+    private CacheMode cacheMode = CacheMode.DEFAULT;
+
+    /**
+     * Maximum bytes of each database log file, default is 10MB
+     */
+    private long logFileSize = 10L * 1024 * 1024;
+
+    /**
+     * Number of threads cleaning the database log files
+     */
+    private int cleanerThreads = 1;
+
+    /**
+     * Whether to keep the full url of each url id in database
+     * Only fingerprints are needed for crawling
+     */
+    private boolean keepFullURL = false;
+
+    /**
+     * Rewrite every url to its canonical form before deduplication
+     * Add rules for hosts with special query or session parameters
+     */
+    private UrlCanonicalizer canonicalizer = new UrlCanonicalizer();
+
+    /**
+     * What to do with pages whose text is near duplicate to a page met before
+     */
+    private SimHashIndex.DuplicatePolicy duplicatePolicy = SimHashIndex.DuplicatePolicy.TAG;
+
+    /**
+     * Maximum number of different SimHash bits between near duplicate pages
+     */
+    private int duplicateDistance = 3;
+
+    /**
+     * Whether to send the validators of the last fetch and skip pages not modified
+     * Fetch metadata is kept in work folder even if the crawler is not resumable,
+     * a skipped page is not parsed or published, but the links stored by its last fetch are scheduled again
+     */
+    private boolean conditionalFetch = false;
+
     /**
      * Number of pages will be stored in each worker thread
      * Worker thread will store a in memory work queue to improve performance
@@ -84,16 +162,127 @@ public class CrawlerConfig {
     private int sizeOfWorkQueue = 50;
 
     /**
-     * Number of pages will be processed to analyzer
-     * During processing, all the crawler threads will be paused
+     * Number of urls kept in memory for each frontier shard
+     * The rest is spilled to database in batches, not used in resumable mode
+     */
+    private int sizeOfMemoryQueue = 100000;
+
+    /**
+     * Number of pages will be processed to analyzer or saved to disk for one time
+     * Processing runs on the writer thread, crawler threads keep working meanwhile
      */
     private int numberOfProcess = 50;
 
+    /**
+     * Number of parsed pages waiting for the writer thread
+     * Crawler threads will be blocked when it's full
+     */
+    private int sizeOfResultQueue = 1000;
+
     /**
      * Minimum number of words for description
      */
     private int descriptionLength = 75;
 
+    /**
+     * Memory budget in bytes for the in memory set of seen urls, default is 32 MB
+     * Once it's full, new urls are checked against the database again
+     */
+    private long seenSetMemory = 32L * 1024 * 1024;
+
+    /**
+     * Number of frontier shards, default is 8
+     * Urls are assigned to shards by host, each shard has its own queue and lock
+     * A resumed crawl must keep the number of its folder
+     */
+    private int numberOfShards = 8;
+
+    /**
+     * Whether each url is visited on its own virtual thread
+     * Crawler threads only dispatch urls in this mode, one crawler thread is usually enough
+     */
+    private boolean virtualThreads = false;
+
+    /**
+     * Maximum number of concurrent fetches in virtual thread mode
+     * The http connection pool grows to this size in that mode, so each fetch gets a connection
+     */
+    private int maxConcurrentFetches = 1000;
+
+    /**
+     * Maximum number of concurrent fetches to the same host in virtual thread mode
+     */
+    private int maxFetchesPerHost = 2;
+
+    /**
+     * Whether to adjust the delay and concurrency of each host by its latency and errors
+     * visitDelay is the starting delay, maxFetchesPerHost is the largest concurrency
+     * The concurrency is limited in every fetch mode, not only with virtual threads
+     */
+    private boolean adaptivePoliteness = false;
+
+    /**
+     * Bounds of the adaptive delay in milliseconds
+     */
+    private int minVisitDelay = 100;
+    private int maxVisitDelay = 60000;
+
+    /**
+     * Response time in milliseconds under which a host is seen as healthy
+     */
+    private int targetLatency = 1000;
+
+    /**
+     * Whether crawler threads send http requests with the non-blocking client of the JDK instead of waiting for them
+     * Up to maxConnectionsTotal requests are in flight without a thread each
+     */
+    private boolean nonBlockingFetch = false;
+
+    /**
+     * Number of threads reading responses and processing pages in non-blocking mode
+     * They parse the pages, so more threads than cores don't help
+     */
+    private int fetchThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Maximum number of pooled connections to the same host
+     * Raised to maxFetchesPerHost in virtual thread mode, limits the requests in flight in non-blocking mode
+     */
+    private int maxConnectionsPerRoute = 10;
+
+    /**
+     * Maximum number of pooled connections in total
+     * Raised to maxConcurrentFetches in virtual thread mode, limits the requests in flight in non-blocking mode
+     */
+    private int maxConnectionsTotal = 200;
+
+    /**
+     * Whether to parse pages and admit links on their own thread pools
+     * Fetching threads only fetch, so the network and all the cores can be busy at the same time
+     */
+    private boolean stagedPipeline = false;
+
+    /**
+     * Number of threads parsing pages, default is number of cores
+     */
+    private int parseThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Number of threads scheduling links to the frontier
+     */
+    private int admissionThreads = 2;
+
+    /**
+     * Number of pages waiting for each stage before the stage ahead is blocked
+     */
+    private int sizeOfStageQueue = 1000;
+
+    /**
+     * Maximum number of bytes read from a page, default is 2 MB
+     * The rest of a larger page is dropped
+     */
+    private int maxContentBytes = 2 * 1024 * 1024;
+
     private int socketTimeout = 20000;
     private int connectionTimeout = 30000;
 
@@ -145,6 +334,14 @@ public class CrawlerConfig {
         return filePath;
     }
 
+    public int getWriteBufferSize() {
+        return writeBufferSize;
+    }
+
+    public ResultWriter.FsyncPolicy getFsyncPolicy() {
+        return fsyncPolicy;
+    }
+
     public String getWorkPath() {
         return workPath;
     }
@@ -157,6 +354,54 @@ public class CrawlerConfig {
         return resumable;
     }
 
+    public GroupCommitter.Durability getCommitDurability() {
+        return commitDurability;
+    }
+
+    public int getGroupCommitInterval() {
+        return groupCommitInterval;
+    }
+
+    public int getGroupCommitSize() {
+        return groupCommitSize;
+    }
+
+    public long getCacheSize() {
+        return cacheSize;
+    }
+
+    public CacheMode getCacheMode() {
+        return cacheMode;
+    }
+
+    public long getLogFileSize() {
+        return logFileSize;
+    }
+
+    public int getCleanerThreads() {
+        return cleanerThreads;
+    }
+
+    public boolean isKeepFullURL() {
+        return keepFullURL;
+    }
+
+    public UrlCanonicalizer getCanonicalizer() {
+        return canonicalizer;
+    }
+
+    public SimHashIndex.DuplicatePolicy getDuplicatePolicy() {
+        return duplicatePolicy;
+    }
+
+    public int getDuplicateDistance() {
+        return duplicateDistance;
+    }
+
+    public boolean isConditionalFetch() {
+        return conditionalFetch;
+    }
+
     public int getSizeOfWorkQueue() {
         return sizeOfWorkQueue;
     }
@@ -165,10 +410,90 @@ public class CrawlerConfig {
         return numberOfProcess;
     }
 
+    public int getSizeOfMemoryQueue() {
+        return sizeOfMemoryQueue;
+    }
+
+    public int getSizeOfResultQueue() {
+        return sizeOfResultQueue;
+    }
+
     public int getDescriptionLength() {
         return descriptionLength;
     }
 
+    public long getSeenSetMemory() {
+        return seenSetMemory;
+    }
+
+    public int getNumberOfShards() {
+        return numberOfShards;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public int getMaxConcurrentFetches() {
+        return maxConcurrentFetches;
+    }
+
+    public int getMaxFetchesPerHost() {
+        return maxFetchesPerHost;
+    }
+
+    public boolean isAdaptivePoliteness() {
+        return adaptivePoliteness;
+    }
+
+    public int getMinVisitDelay() {
+        return minVisitDelay;
+    }
+
+    public int getMaxVisitDelay() {
+        return maxVisitDelay;
+    }
+
+    public int getTargetLatency() {
+        return targetLatency;
+    }
+
+    public boolean isNonBlockingFetch() {
+        return nonBlockingFetch;
+    }
+
+    public int getFetchThreads() {
+        return fetchThreads;
+    }
+
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    public int getMaxConnectionsTotal() {
+        return maxConnectionsTotal;
+    }
+
+    public boolean isStagedPipeline() {
+        return stagedPipeline;
+    }
+
+    public int getParseThreads() {
+        return parseThreads;
+    }
+
+    public int getAdmissionThreads() {
+        return admissionThreads;
+    }
+
+    public int getSizeOfStageQueue() {
+        return sizeOfStageQueue;
+    }
+
+    public int getMaxContentBytes() {
+        return maxContentBytes;
+    }
+
     public void setMaxDepth(int maxDepth) {
         this.maxDepth = maxDepth;
     }
@@ -201,6 +526,14 @@ public class CrawlerConfig {
         this.filePath = filePath;
     }
 
+    public void setWriteBufferSize(int writeBufferSize) {
+        this.writeBufferSize = writeBufferSize;
+    }
+
+    public void setFsyncPolicy(ResultWriter.FsyncPolicy fsyncPolicy) {
+        this.fsyncPolicy = fsyncPolicy;
+    }
+
     public void setWorkPath(String workPath) {
         this.workPath = workPath;
     }
@@ -213,6 +546,54 @@ public class CrawlerConfig {
         this.resumable = resumable;
     }
 
+    public void setCommitDurability(GroupCommitter.Durability commitDurability) {
+        this.commitDurability = commitDurability;
+    }
+
+    public void setGroupCommitInterval(int groupCommitInterval) {
+        this.groupCommitInterval = groupCommitInterval;
+    }
+
+    public void setGroupCommitSize(int groupCommitSize) {
+        this.groupCommitSize = groupCommitSize;
+    }
+
+    public void setCacheSize(long cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
+    public void setCacheMode(CacheMode cacheMode) {
+        this.cacheMode = cacheMode;
+    }
+
+    public void setLogFileSize(long logFileSize) {
+        this.logFileSize = logFileSize;
+    }
+
+    public void setCleanerThreads(int cleanerThreads) {
+        this.cleanerThreads = cleanerThreads;
+    }
+
+    public void setKeepFullURL(boolean keepFullURL) {
+        this.keepFullURL = keepFullURL;
+    }
+
+    public void setCanonicalizer(UrlCanonicalizer canonicalizer) {
+        this.canonicalizer = canonicalizer;
+    }
+
+    public void setDuplicatePolicy(SimHashIndex.DuplicatePolicy duplicatePolicy) {
+        this.duplicatePolicy = duplicatePolicy;
+    }
+
+    public void setDuplicateDistance(int duplicateDistance) {
+        this.duplicateDistance = duplicateDistance;
+    }
+
+    public void setConditionalFetch(boolean conditionalFetch) {
+        this.conditionalFetch = conditionalFetch;
+    }
+
     public void setSizeOfWorkQueue(int sizeOfWorkQueue) {
         this.sizeOfWorkQueue = sizeOfWorkQueue;
     }
@@ -221,10 +602,90 @@ public class CrawlerConfig {
         this.numberOfProcess = numberOfProcess;
     }
 
+    public void setSizeOfMemoryQueue(int sizeOfMemoryQueue) {
+        this.sizeOfMemoryQueue = sizeOfMemoryQueue;
+    }
+
+    public void setSizeOfResultQueue(int sizeOfResultQueue) {
+        this.sizeOfResultQueue = sizeOfResultQueue;
+    }
+
     public void setDescriptionLength(int descriptionLength) {
         this.descriptionLength = descriptionLength;
     }
 
+    public void setSeenSetMemory(long seenSetMemory) {
+        this.seenSetMemory = seenSetMemory;
+    }
+
+    public void setNumberOfShards(int numberOfShards) {
+        this.numberOfShards = numberOfShards;
+    }
+
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    public void setMaxConcurrentFetches(int maxConcurrentFetches) {
+        this.maxConcurrentFetches = maxConcurrentFetches;
+    }
+
+    public void setMaxFetchesPerHost(int maxFetchesPerHost) {
+        this.maxFetchesPerHost = maxFetchesPerHost;
+    }
+
+    public void setAdaptivePoliteness(boolean adaptivePoliteness) {
+        this.adaptivePoliteness = adaptivePoliteness;
+    }
+
+    public void setMinVisitDelay(int minVisitDelay) {
+        this.minVisitDelay = minVisitDelay;
+    }
+
+    public void setMaxVisitDelay(int maxVisitDelay) {
+        this.maxVisitDelay = maxVisitDelay;
+    }
+
+    public void setTargetLatency(int targetLatency) {
+        this.targetLatency = targetLatency;
+    }
+
+    public void setNonBlockingFetch(boolean nonBlockingFetch) {
+        this.nonBlockingFetch = nonBlockingFetch;
+    }
+
+    public void setFetchThreads(int fetchThreads) {
+        this.fetchThreads = fetchThreads;
+    }
+
+    public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    }
+
+    public void setMaxConnectionsTotal(int maxConnectionsTotal) {
+        this.maxConnectionsTotal = maxConnectionsTotal;
+    }
+
+    public void setStagedPipeline(boolean stagedPipeline) {
+        this.stagedPipeline = stagedPipeline;
+    }
+
+    public void setParseThreads(int parseThreads) {
+        this.parseThreads = parseThreads;
+    }
+
+    public void setAdmissionThreads(int admissionThreads) {
+        this.admissionThreads = admissionThreads;
+    }
+
+    public void setSizeOfStageQueue(int sizeOfStageQueue) {
+        this.sizeOfStageQueue = sizeOfStageQueue;
+    }
+
+    public void setMaxContentBytes(int maxContentBytes) {
+        this.maxContentBytes = maxContentBytes;
+    }
+
     /**
      * Add a seed url at the beginning
      *
@@ -256,4 +717,16 @@ public class CrawlerConfig {
     public boolean shouldVisit(WebURL url) {
         return true;
     }
+
+    /**
+     * Score of the url when it's put into the frontier, 0 by default
+     * Urls with higher score are visited first, urls with the same score in FIFO order
+     * Override it to visit valuable pages first, e.g. return -url.getDepth() for strict BFS
+     *
+     * @param url A WebURL object
+     * @return Score of the url
+     */
+    public double score(WebURL url) {
+        return 0;
+    }
 }
@@ -1,14 +1,7 @@
-import org.apache.commons.lang.StringEscapeUtils;
-import org.json.JSONArray;
-import org.json.JSONObject;
-
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.OutputStreamWriter;
-import java.nio.charset.Charset;
-import java.nio.charset.CharsetEncoder;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Created by Lanslot on 2017/4/9.
@@ -16,10 +9,18 @@ import java.util.List;
 public class CrawlerMonitor {
 
     private Frontier frontier;
-    private HttpResponseClient responseClient;
+    private Fetcher responseClient;
+    private FetchExecutor fetchExecutor;
+    private StagedPipeline stages;
+    private ResultWriter resultWriter;
+    private ResultPipeline results;
     private CrawlerConfig config;
     private final Object mutex = new Object();
-    private List<WebPage> resultPages;
+
+    /**
+     * Analyzers subscribed to the results
+     */
+    private List<ResultConsumer> consumers;
 
     /**
      * Default constructor
@@ -31,8 +32,10 @@ public class CrawlerMonitor {
         this.config = config;
 
         // delete previous session if not resumable
+        // fetch metadata in work folder is kept, the frontier drops the other databases
         if (!this.config.isResumable()) {
-            deleteFiles(this.config.getWorkPath());
+            if (!this.config.isConditionalFetch())
+                deleteFiles(this.config.getWorkPath());
             deleteFiles(this.config.getFilePath());
             System.out.println("Cleaned folder because crawler is not resumable");
         }
@@ -43,31 +46,62 @@ public class CrawlerMonitor {
         // create the result file in offline mode
         if (this.config.isOffline()) {
             createFiles(this.config.getFilePath(), false);
+            try {
+                this.resultWriter = new ResultWriter(this.config);
+            } catch (Exception e) {
+                System.out.println("Failed to open result file!");
+            }
         }
 
         this.frontier = new Frontier(this.config);
-        this.responseClient = new HttpResponseClient(this.config);
-        this.resultPages = new ArrayList<>();
+        FetchMetadataDB metadataDB = this.frontier.getFetchMetadata();
+        this.responseClient = this.config.isNonBlockingFetch() ? new NonBlockingHttpFetcher(this.config, metadataDB) : new HttpResponseClient(this.config, metadataDB);
+        if (this.config.isVirtualThreads()) {
+            this.fetchExecutor = new FetchExecutor(this.config, this.responseClient.getScheduler());
+        }
+        if (this.config.isStagedPipeline()) {
+            this.stages = new StagedPipeline(this.config);
+        }
+        this.consumers = new CopyOnWriteArrayList<>();
+        this.results = new ResultPipeline(this.config, this::processResults);
     }
 
-    public List<WebPage> getResultPages() {
-        return resultPages;
+    /**
+     * Subscribe an analyzer to the results
+     * Should be called before start to receive all the batches
+     *
+     * @param consumer The analyzer
+     */
+    public void subscribe(ResultConsumer consumer) {
+        consumers.add(consumer);
     }
 
     /**
      * Start all the crawler threads and the monitor threads
+     * In online mode at least one analyzer must be subscribed, otherwise the results would be dropped
+     *
+     * @throws IllegalStateException On online mode without any analyzer
      */
     public void start() {
 
+        // fail before any page is fetched
+        if (!config.isOffline() && consumers.isEmpty()) {
+            System.out.println("No analyzer subscribed in online mode!");
+            throw new IllegalStateException("Subscribe an analyzer before starting in online mode, or switch to offline mode");
+        }
+
         // Fill frontier with seed urls
         frontier.setWorkQueue(config);
 
+        // start the writer thread before any result comes
+        results.start();
+
         List<Thread> threads = new ArrayList<>();
         List<WebCrawler> crawlers = new ArrayList<>();
 
         // start all the worker threads
         for (int i = 0; i < config.getNumberOfCrawler(); i++) {
-            WebCrawler crawler = new WebCrawler(config, frontier, responseClient);
+            WebCrawler crawler = new WebCrawler(config, frontier, responseClient, results, fetchExecutor, stages);
             Thread thread = new Thread(crawler, "Crawler " + i);
             thread.start();
             crawlers.add(crawler);
@@ -76,25 +110,23 @@ public class CrawlerMonitor {
         }
 
         // create a monitor thread
-        // check all the worker threads periodically
+        // restart dead worker threads and shut down as soon as the crawl is finished
         Thread monitor = new Thread(() -> {
             try {
                 synchronized (mutex) {
                     while (true) {
-                        Thread.sleep(config.getThreadMonitorDelay());
-                        boolean isWorking = false;
-                        int resultSize = 0;
+                        if (frontier.awaitTermination(config.getThreadMonitorDelay())) {
+                            System.out.println("No one is working");
+                            break;
+                        }
 
                         // scan all worker threads
                         for (int i = 0; i < threads.size(); i++) {
 
-                            // check result size
-                            resultSize += crawlers.get(i).getResultPages().size();
-
                             // thread is dead
                             if (!threads.get(i).isAlive()) {
                                 System.out.printf("Crawler %d dead\n", i);
-                                WebCrawler crawler = new WebCrawler(config, frontier, responseClient);
+                                WebCrawler crawler = new WebCrawler(config, frontier, responseClient, results, fetchExecutor, stages);
                                 Thread thread = new Thread(crawler, "Crawler " + i);
                                 thread.start();
                                 threads.remove(i);
@@ -102,62 +134,21 @@ public class CrawlerMonitor {
                                 crawlers.remove(i);
                                 crawlers.add(i, crawler);
                                 System.out.printf("Crawler %d started\n", i);
-                            } else if (!crawlers.get(i).isWaitingForURL()) {    // thread is working
-                                isWorking = true;
                             }
                         }
+                    }
 
-                        // process result
-                        if (resultSize > config.getNumberOfProcess()) {
-
-                            // wait for worker thread stop
-                            for (WebCrawler crawler : crawlers) {
-                                crawler.setWaitingForSave(true);
-                                while (!crawler.isWaiting()) {
-                                    Thread.sleep(10);
-                                }
-
-                                // take over all the results
-                                resultPages.addAll(crawler.getResultPages());
-                                crawler.clearResults();
-                            }
-
-                            // save json object to disk in offline mode
-                            // or wait for analyzer in online mode
-                            if (config.isOffline()) {
-                                saveToDisk(resultPages, config.getFilePath());
-                            } else {
-                                Global.hasJSON = true;
-                                System.out.println("Waiting for analyzer");
-                                while (Global.hasJSON) {
-                                    Thread.sleep(config.getThreadMonitorDelay() / 5);
-                                }
-                            }
-
-                            // wake up all the worker threads
-                            for (WebCrawler crawler : crawlers) {
-                                crawler.setWaitingForSave(false);
-                            }
-                        }
-
-                        // wait for a period of time to make sure
-                        if (!isWorking) {
-                            System.out.println("No one is working");
-                            Thread.sleep(config.getThreadMonitorDelay());
-                            for (int i = 0; i < threads.size(); i++) {
-                                if (threads.get(i).isAlive() && !crawlers.get(i).isWaitingForURL()) {
-                                    isWorking = true;
-                                }
-                            }
-
-                            // shutdown the program
-                            if (!isWorking) {
-                                System.out.println("Shutting down");
-                                shutdown();
-                                return;
-                            }
-                        }
+                    // stop all the worker threads waiting for urls
+                    for (Thread thread : threads) {
+                        thread.interrupt();
                     }
+                    for (Thread thread : threads) {
+                        thread.join();
+                    }
+
+                    // shutdown the program
+                    System.out.println("Shutting down");
+                    shutdown();
                 }
             } catch (InterruptedException e) {
                 System.out.println("Monitor thread failed to sleep!");
@@ -167,32 +158,58 @@ public class CrawlerMonitor {
         monitor.start();
     }
 
+    /**
+     * Handle a batch of results on the writer thread
+     * Pass them to all the analyzers, and save them to disk in offline mode
+     * Crawler threads keep working until the result queue is full
+     *
+     * @param batch Pages passed from crawler threads
+     */
+    public void processResults(List<WebPage> batch) {
+        if (config.isOffline()) {
+            saveToDisk(batch, config.getFilePath());
+        }
+
+        for (ResultConsumer consumer : consumers) {
+            try {
+                consumer.onBatch(consumers.size() > 1 ? new ArrayList<>(batch) : batch);
+            } catch (Exception e) {
+                System.out.println("Analyzer failed to process results!");
+            }
+        }
+    }
+
     /**
      * Action before shutdown
      */
     public void shutdown() {
+        if (fetchExecutor != null) {
+            fetchExecutor.shutdown();
+        }
+        if (stages != null) {
+            stages.shutdown();
+        }
+        results.close();
+        for (ResultConsumer consumer : consumers) {
+            consumer.onComplete();
+        }
+        responseClient.close();
+        if (resultWriter != null) {
+            resultWriter.close();
+        }
         frontier.shutdown();
     }
 
     /**
      * Save JSON results to disk
+     * Each page is written as one line
      */
     public synchronized void saveToDisk(List<WebPage> resultPages, String filePath) {
         try {
-            // use utf-8 as encoder
-            CharsetEncoder encoder = Charset.forName("UTF-8").newEncoder();
-            OutputStreamWriter out = new OutputStreamWriter(new FileOutputStream(filePath, true), encoder);
-
-            // get a JSON object from the result list
-            JSONObject main = parseToJSON(resultPages);
-
-            // remove all unicode characters
-            String string = main.toString();
-            string = StringEscapeUtils.unescapeJava(string);
-
-            // write to disk
-            out.write(string + '\n');
-            out.close();
+            for (WebPage page : resultPages) {
+                resultWriter.write(page);
+            }
+            resultWriter.flush();
 
             System.out.println("Results saved");
         } catch (Exception e) {
@@ -242,29 +259,4 @@ public class CrawlerMonitor {
             System.out.println("Failed to delete files!");
         }
     }
-
-    /**
-     * Parse results into JSON object
-     *
-     * @return JSON result
-     */
-    public JSONObject parseToJSON(List<WebPage> resultPages) {
-        JSONObject main = new JSONObject();
-        JSONArray page = new JSONArray();
-
-        // put all the results in page array
-        while (!resultPages.isEmpty()) {
-            WebPage webPage = resultPages.remove(0);
-            JSONObject object = new JSONObject();
-            object.put("hash", webPage.getHash());
-            object.put("url", webPage.getUrl());
-            object.put("title", webPage.getTitle());
-            object.put("description", webPage.getDescription());
-            object.put("text", webPage.getText());
-            page.put(object);
-        }
-
-        main.put("pages", page);
-        return main;
-    }
 }
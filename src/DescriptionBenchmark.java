@@ -0,0 +1,129 @@
+import java.util.Random;
+
+/**
+ * Check that the index scan of findDescription returns the same as the old split based version
+ * on random texts, then compare their speed on fixed texts
+ */
+public class DescriptionBenchmark {
+
+    private static final int CHECKS = 200000;
+    private static final int TEXTS = 2000;
+    private static final int ROUNDS = 50;
+
+    public static void main(String[] args) {
+        CrawlerConfig config = new CrawlerConfig();
+        config.setDescriptionLength(75);
+        WebCrawler crawler = new WebCrawler(config, null, null, null);
+        Random random = new Random(42);
+
+        // equivalence on random texts, including empty words and long paragraphs
+        for (int i = 0; i < CHECKS; i++) {
+            String text = randomText(random, random.nextInt(300));
+            String expected = findDescriptionOld(text, config.getDescriptionLength());
+            String actual = crawler.findDescription(text);
+            if (!expected.equals(actual)) {
+                System.out.println("Failed: different description for \"" + text + "\"");
+                System.exit(1);
+            }
+        }
+        System.out.println("Passed: " + CHECKS + " random texts give the same description");
+
+        String[] texts = new String[TEXTS];
+        for (int i = 0; i < TEXTS; i++)
+            texts[i] = randomText(random, 20000);
+
+        // warm up both versions before measuring
+        for (int i = 0; i < 5; i++) {
+            for (String text : texts) {
+                findDescriptionOld(text, config.getDescriptionLength());
+                crawler.findDescription(text);
+            }
+        }
+
+        long start = System.nanoTime();
+        long oldChars = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            for (String text : texts)
+                oldChars += findDescriptionOld(text, config.getDescriptionLength()).length();
+        }
+        long oldTime = (System.nanoTime() - start) / 1000000;
+
+        start = System.nanoTime();
+        long newChars = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            for (String text : texts)
+                newChars += crawler.findDescription(text).length();
+        }
+        long newTime = (System.nanoTime() - start) / 1000000;
+
+        System.out.println("texts=" + TEXTS + " rounds=" + ROUNDS);
+        System.out.println("old split time=" + oldTime + "ms chars=" + oldChars);
+        System.out.println("new scan time=" + newTime + "ms chars=" + newChars);
+    }
+
+    /**
+     * Build a text of short and long words separated by one or more spaces
+     *
+     * @param random Random source
+     * @param length Length of the text
+     * @return The text
+     */
+    private static String randomText(Random random, int length) {
+        StringBuilder text = new StringBuilder(length);
+        while (text.length() < length) {
+            int roll = random.nextInt(10);
+            if (roll == 0) {
+                text.append(' ');
+            } else {
+                // mostly short words, sometimes a long paragraph without spaces
+                int size = roll == 1 ? 1 + random.nextInt(150) : 1 + random.nextInt(8);
+                for (int i = 0; i < size; i++)
+                    text.append((char) ('a' + random.nextInt(26)));
+                text.append(' ');
+            }
+        }
+        return text.substring(0, length);
+    }
+
+    /**
+     * findDescription before it scanned index ranges
+     *
+     * @param text              Plain text of the page
+     * @param descriptionLength Length of the description
+     * @return A String contains description
+     */
+    private static String findDescriptionOld(String text, int descriptionLength) {
+
+        // return whole page if it's too short
+        if (text.length() < descriptionLength)
+            return text;
+
+        String[] strings = text.split(" ");
+        String result = "";
+        StringBuilder substr = new StringBuilder();
+        int maxLength = 0;
+
+        // find the first several sentences in longest paragraph
+        // or add up the first several paragraphs when no one is long enough
+        for (String string : strings) {
+            if (string.length() > maxLength) {
+                result = string;
+                maxLength = result.length();
+            }
+            if (substr.length() < descriptionLength && string.length() > 4)
+                substr.append(string).append(' ');
+        }
+
+        // add up first several sentences in longest paragraph
+        if (result.length() > descriptionLength) {
+            String[] strings1 = result.split(" ");
+            substr = new StringBuilder();
+            for (String string : strings1) {
+                if (substr.length() < descriptionLength)
+                    substr.append(string).append(' ');
+            }
+        }
+
+        return substr.toString();
+    }
+}
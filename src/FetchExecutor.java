@@ -0,0 +1,177 @@
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs each fetch on its own virtual thread with global and per host limits
+ */
+public class FetchExecutor {
+
+    private ExecutorService executor;
+
+    /**
+     * Limit of concurrent fetches for all hosts
+     */
+    private Semaphore globalPermits;
+
+    /**
+     * Limit of submitted tasks, including the ones waiting for their host
+     * Twice the global limit, so busy hosts don't stop the caller from reaching other hosts
+     */
+    private Semaphore queuedPermits;
+
+    /**
+     * Limit of concurrent fetches for each host, only busy hosts are kept
+     */
+    private HostPermits hostPermits;
+
+    /**
+     * Adjusts the limit of each host by its responses, null to use maxFetchesPerHost
+     */
+    private HostController controller;
+
+    /**
+     * Keeps the politeness delay of each host
+     */
+    private PolitenessScheduler scheduler;
+
+    private long visitDelay;
+
+    /**
+     * Number of submitted tasks not finished yet
+     */
+    private AtomicInteger running;
+
+    /**
+     * Default constructor
+     * Use virtual threads when the runtime supports them
+     *
+     * @param config    The config of crawler defined by user
+     * @param scheduler Politeness scheduler of the fetcher, its controller limits each host if any
+     */
+    public FetchExecutor(CrawlerConfig config, PolitenessScheduler scheduler) {
+        this.scheduler = scheduler;
+        this.controller = scheduler.getController();
+        this.visitDelay = config.getVisitDelay();
+        this.executor = newVirtualThreadExecutor();
+        this.globalPermits = new Semaphore(config.getMaxConcurrentFetches());
+        this.queuedPermits = new Semaphore(config.getMaxConcurrentFetches() * 2);
+        this.hostPermits = new HostPermits(config.getMaxFetchesPerHost());
+        this.running = new AtomicInteger(0);
+    }
+
+    /**
+     * Run the task for a url on its own thread
+     * Block the caller while too many tasks are submitted
+     * The task takes its host permit, waits for the politeness delay, then takes the global permit,
+     * so tasks waiting for a busy or delayed host don't hold the fetches of other hosts
+     * The task should send its request right away, the delay is already waited for
+     * The task runs on the caller if the executor refuses it
+     *
+     * @param url  Link should be visited
+     * @param task Work for the url
+     * @throws InterruptedException On interrupted while waiting for a permit
+     */
+    public void submit(WebURL url, Runnable task) throws InterruptedException {
+        queuedPermits.acquire();
+        running.incrementAndGet();
+
+        try {
+            executor.execute(() -> {
+                try {
+                    // the task must run once it's accepted
+                    acquireHost(url.getHost());
+                    try {
+                        awaitPoliteness(url.getHost());
+                        globalPermits.acquireUninterruptibly();
+                        try {
+                            task.run();
+                        } finally {
+                            globalPermits.release();
+                        }
+                    } finally {
+                        releaseHost(url.getHost());
+                    }
+                } catch (Exception e) {
+                    System.out.println("Fetch task failed!");
+                } finally {
+                    running.decrementAndGet();
+                    queuedPermits.release();
+                }
+            });
+        } catch (Exception e) {
+            running.decrementAndGet();
+            queuedPermits.release();
+
+            // run it on the caller when the executor refuses it
+            System.out.println("Failed to submit fetch task!");
+            awaitPoliteness(url.getHost());
+            task.run();
+        }
+    }
+
+    /**
+     * Sleep until the next visit slot of the host
+     * The task still runs if interrupted, the interrupt is kept for it
+     *
+     * @param host Host of the link
+     */
+    private void awaitPoliteness(String host) {
+        long waitTime = scheduler.reserve(host, visitDelay);
+        if (waitTime <= 0)
+            return;
+
+        try {
+            Thread.sleep(waitTime);
+        } catch (InterruptedException e) {
+            System.out.println("Fetch task failed to sleep!");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void acquireHost(String host) {
+        if (controller != null)
+            controller.acquire(host);
+        else
+            hostPermits.acquire(host);
+    }
+
+    private void releaseHost(String host) {
+        if (controller != null)
+            controller.release(host);
+        else
+            hostPermits.release(host);
+    }
+
+    /**
+     * Return whether no task is running
+     *
+     * @return True if all the tasks are finished
+     */
+    public boolean isIdle() {
+        return running.get() == 0;
+    }
+
+    /**
+     * Action before shutdown
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Create an executor starts a virtual thread for each task
+     * Fall back to a cached thread pool on runtimes without virtual threads
+     *
+     * @return The executor
+     */
+    public static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            System.out.println("Virtual threads not supported, use thread pool instead");
+            return Executors.newCachedThreadPool();
+        }
+    }
+}
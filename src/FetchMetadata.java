@@ -0,0 +1,69 @@
+import java.util.List;
+
+/**
+ * Validators and content hash of the last fetch of a url
+ */
+public class FetchMetadata {
+
+    /**
+     * Validators from the last response, null if the server sent none
+     */
+    private String etag;
+    private String lastModified;
+
+    /**
+     * Hash of the last html content
+     */
+    private long contentHash;
+
+    /**
+     * Milliseconds since epoch of the last fetch
+     */
+    private long lastFetch;
+
+    /**
+     * Absolute links of the last content, scheduled again when the page is not modified
+     * Null if they are not recorded yet
+     */
+    private List<String> outlinks;
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    public long getContentHash() {
+        return contentHash;
+    }
+
+    public long getLastFetch() {
+        return lastFetch;
+    }
+
+    public List<String> getOutlinks() {
+        return outlinks;
+    }
+
+    public void setEtag(String etag) {
+        this.etag = etag;
+    }
+
+    public void setLastModified(String lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    public void setContentHash(long contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    public void setLastFetch(long lastFetch) {
+        this.lastFetch = lastFetch;
+    }
+
+    public void setOutlinks(List<String> outlinks) {
+        this.outlinks = outlinks;
+    }
+}
@@ -0,0 +1,125 @@
+import com.sleepycat.je.*;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Database of the last fetch of each url, used for conditional requests
+ */
+public class FetchMetadataDB {
+
+    /**
+     * Name of the database, kept when the other frontier databases are cleaned
+     */
+    public static final String NAME = "fetchMetaDB";
+
+    /**
+     * Url fingerprint to the metadata of its last fetch
+     */
+    private Database metadb;
+    private FetchMetadataTupleBinding tupleBinding;
+
+    /**
+     * Default constructor
+     *
+     * @param env      The shared environment
+     * @param dbConfig The database config
+     */
+    public FetchMetadataDB(Environment env, DatabaseConfig dbConfig) {
+        this.tupleBinding = new FetchMetadataTupleBinding();
+        this.metadb = env.openDatabase(null, NAME, dbConfig);
+    }
+
+    /**
+     * Return the metadata of the last fetch of an url
+     * Return null if it's never fetched
+     *
+     * @param url Url for website
+     * @return Metadata of the last fetch
+     */
+    public FetchMetadata get(WebURL url) {
+        DatabaseEntry value = new DatabaseEntry();
+        if (metadb.get(null, getKey(url), value, null) == OperationStatus.SUCCESS)
+            return tupleBinding.entryToObject(value);
+        return null;
+    }
+
+    /**
+     * Store the metadata of the last fetch of an url
+     *
+     * @param url      Url for website
+     * @param metadata Metadata of the fetch
+     */
+    public void put(WebURL url, FetchMetadata metadata) {
+        DatabaseEntry value = new DatabaseEntry();
+        tupleBinding.objectToEntry(metadata, value);
+        metadb.put(null, getKey(url), value);
+    }
+
+    /**
+     * Store the validators and content hash of a page just fetched
+     * The links of the last fetch are kept if the content is the same,
+     * the links of a changed page are recorded by the crawler after it's parsed
+     *
+     * @param url          Url for website
+     * @param last         Metadata of the last fetch, null if never fetched
+     * @param etag         Value of ETag header, null if none
+     * @param lastModified Value of Last-Modified header, null if none
+     * @param contentHash  Hash of the body
+     * @return True if the content is the same as the last fetch and its links are kept
+     */
+    public boolean putFetch(WebURL url, FetchMetadata last, String etag, String lastModified, long contentHash) {
+        FetchMetadata metadata = new FetchMetadata();
+        metadata.setEtag(etag);
+        metadata.setLastModified(lastModified);
+        metadata.setContentHash(contentHash);
+        metadata.setLastFetch(System.currentTimeMillis());
+
+        // parse it again if the links are not recorded
+        boolean unchanged = last != null && last.getContentHash() == contentHash && last.getOutlinks() != null;
+        if (unchanged)
+            metadata.setOutlinks(last.getOutlinks());
+        put(url, metadata);
+        return unchanged;
+    }
+
+    /**
+     * Record that the page is not modified since the last fetch
+     *
+     * @param url  Url for website
+     * @param last Metadata of the last fetch
+     */
+    public void putNotModified(WebURL url, FetchMetadata last) {
+        last.setLastFetch(System.currentTimeMillis());
+        put(url, last);
+    }
+
+    /**
+     * Record the links of the content stored by the last fetch
+     * Only the fetching thread of the url writes its metadata, so no other write comes in between
+     *
+     * @param url      Url for website
+     * @param outlinks Absolute links of the page
+     */
+    public void putOutlinks(WebURL url, List<String> outlinks) {
+        FetchMetadata metadata = get(url);
+        if (metadata == null)
+            return;
+
+        metadata.setOutlinks(outlinks);
+        put(url, metadata);
+    }
+
+    private DatabaseEntry getKey(WebURL url) {
+        return new DatabaseEntry(ByteBuffer.allocate(8).putLong(url.getFingerprint()).array());
+    }
+
+    /**
+     * Close the database
+     * The environment is closed by its owner
+     */
+    public void closeDB() {
+        if (metadb != null)
+            metadb.close();
+    }
+}
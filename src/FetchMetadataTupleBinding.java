@@ -0,0 +1,47 @@
+import com.sleepycat.bind.tuple.TupleBinding;
+import com.sleepycat.bind.tuple.TupleInput;
+import com.sleepycat.bind.tuple.TupleOutput;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binding between FetchMetadata and database entries
+ */
+public class FetchMetadataTupleBinding extends TupleBinding<FetchMetadata> {
+
+    @Override
+    public FetchMetadata entryToObject(TupleInput tupleInput) {
+        FetchMetadata metadata = new FetchMetadata();
+        metadata.setEtag(tupleInput.readString());
+        metadata.setLastModified(tupleInput.readString());
+        metadata.setContentHash(tupleInput.readLong());
+        metadata.setLastFetch(tupleInput.readLong());
+
+        // entries from older runs have no links
+        int count = tupleInput.available() > 0 ? tupleInput.readInt() : -1;
+        if (count >= 0) {
+            List<String> outlinks = new ArrayList<>(count);
+            for (int i = 0; i < count; i++)
+                outlinks.add(tupleInput.readString());
+            metadata.setOutlinks(outlinks);
+        }
+        return metadata;
+    }
+
+    @Override
+    public void objectToEntry(FetchMetadata metadata, TupleOutput tupleOutput) {
+        tupleOutput.writeString(metadata.getEtag());
+        tupleOutput.writeString(metadata.getLastModified());
+        tupleOutput.writeLong(metadata.getContentHash());
+        tupleOutput.writeLong(metadata.getLastFetch());
+
+        // -1 if the links are not recorded
+        List<String> outlinks = metadata.getOutlinks();
+        tupleOutput.writeInt(outlinks == null ? -1 : outlinks.size());
+        if (outlinks != null) {
+            for (String outlink : outlinks)
+                tupleOutput.writeString(outlink);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Fetches the html content of urls
+ */
+public interface Fetcher {
+
+    /**
+     * Returned instead of the content when the page is not modified since the last fetch
+     * Compared by reference, its links are kept in the fetch metadata
+     */
+    PageContent NOT_MODIFIED = new PageContent(0, null);
+
+    /**
+     * Visit the url and wait for its body
+     *
+     * @param url        Link should be visited
+     * @param visitDelay Delay between two requests to the same host
+     * @return Body of the page, null if failed, or NOT_MODIFIED
+     */
+    PageContent getResponse(WebURL url, long visitDelay);
+
+    /**
+     * Send the request right away and wait for its body
+     * The caller has waited for the politeness delay of the host
+     *
+     * @param url Link should be visited
+     * @return Body of the page, null if failed, or NOT_MODIFIED
+     */
+    PageContent execute(WebURL url);
+
+    /**
+     * Visit the url without waiting for its response
+     *
+     * @param url        Link should be visited
+     * @param visitDelay Delay between two requests to the same host
+     * @return Future completed with the body, null if failed, or NOT_MODIFIED
+     */
+    CompletableFuture<PageContent> getResponseAsync(WebURL url, long visitDelay);
+
+    /**
+     * Return the politeness scheduler used by the fetcher
+     *
+     * @return The politeness scheduler
+     */
+    PolitenessScheduler getScheduler();
+
+    /**
+     * Release all the connections
+     */
+    void close();
+}
@@ -1,16 +1,29 @@
 import com.sleepycat.je.DatabaseConfig;
+import com.sleepycat.je.Environment;
 import com.sleepycat.je.EnvironmentConfig;
+import com.sleepycat.je.Transaction;
 import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Created by Lanslot on 2017/4/8.
  */
 public class Frontier {
 
-    private WorkQueueDB workDB;
+    /**
+     * Work queues split by host
+     * Each shard has its own queue database, seen set partition and lock
+     */
+    private FrontierShard[] shards;
 
     /**
      * A database to store all the hash for visited pages
@@ -18,13 +31,77 @@ public class Frontier {
      */
     private UrlDB urlDB;
 
+    /**
+     * The database environment shared by url database and all the work queues
+     * One cache, log cleaner and checkpointer for the whole frontier
+     */
+    private Environment env;
+
+    /**
+     * Commits the page transactions in resumable mode, null otherwise
+     */
+    private GroupCommitter committer;
+
+    /**
+     * SimHash of the pages emitted, null if duplicates are kept
+     */
+    private SimHashIndex duplicateIndex;
+
+    /**
+     * Validators of the last fetch of each url, null if conditional fetch is off
+     */
+    private FetchMetadataDB fetchMetadata;
+
+    /**
+     * Format version and shard count of the databases
+     */
+    private FrontierMetaDB metaDB;
+
     /**
      * Page number limit for crawling
      */
     private int maxPages;
 
+    /**
+     * Number of pages assigned to worker threads
+     */
+    private AtomicInteger assignedPages;
+
+    /**
+     * Shard to start with for the next dequeue
+     */
+    private AtomicInteger nextShard;
+
+    /**
+     * Lock only for waiting and signaling, never held while touching the queues
+     */
+    private final ReentrantLock idleLock = new ReentrantLock();
+
+    /**
+     * Signaled when new urls are admitted
+     */
+    private final Condition workAdmitted = idleLock.newCondition();
+
+    /**
+     * Signaled when no url is in flight
+     */
+    private final Condition workFinished = idleLock.newCondition();
+
+    /**
+     * Increased on every admission, so a waiting worker never misses a signal
+     */
+    private AtomicLong admissions;
+
+    /**
+     * Number of workers waiting for urls
+     */
+    private AtomicInteger waitingWorkers;
 
-    private final Object mutex = new Object();
+    /**
+     * Number of urls assigned to workers but not finished yet
+     * Increased before urls leave the queue, decreased after their links are scheduled
+     */
+    private AtomicInteger inFlight;
 
 
     /**
@@ -35,18 +112,69 @@ public class Frontier {
      */
     public Frontier(CrawlerConfig config) {
         this.maxPages = config.getMaxPages();
+        this.assignedPages = new AtomicInteger(0);
+        this.nextShard = new AtomicInteger(0);
+        this.admissions = new AtomicLong(0);
+        this.waitingWorkers = new AtomicInteger(0);
+        this.inFlight = new AtomicInteger(0);
 
-        // setup the hash database
+        // setup the shared environment
         EnvironmentConfig envConfig = new EnvironmentConfig();
         envConfig.setAllowCreate(true);
         envConfig.setTransactional(config.isResumable());
+        envConfig.setCacheSize(config.getCacheSize());
+        envConfig.setCacheMode(config.getCacheMode());
+        envConfig.setConfigParam(EnvironmentConfig.LOG_FILE_MAX, String.valueOf(config.getLogFileSize()));
+        envConfig.setConfigParam(EnvironmentConfig.CLEANER_THREADS, String.valueOf(config.getCleanerThreads()));
+        this.env = new Environment(new File(config.getWorkPath()), envConfig);
 
         DatabaseConfig dbConfig = new DatabaseConfig();
         dbConfig.setAllowCreate(true);
         dbConfig.setTransactional(config.isResumable());
 
-        this.urlDB = new UrlDB(envConfig, dbConfig, config.getWorkPath());
-        this.workDB = new WorkQueueDB(envConfig, dbConfig, config.getWorkPath());
+        // start a new crawl but keep the fetch metadata from last runs
+        if (!config.isResumable()) {
+            for (String name : env.getDatabaseNames()) {
+                if (!name.equals(FetchMetadataDB.NAME))
+                    env.removeDatabase(null, name);
+            }
+        }
+
+        // resume only a folder of the same format and shard count
+        this.shards = new FrontierShard[Math.max(1, config.getNumberOfShards())];
+        try {
+            this.metaDB = new FrontierMetaDB(env, dbConfig, shards.length);
+        } catch (IllegalStateException e) {
+            env.close();
+            throw e;
+        }
+
+        if (config.isConditionalFetch()) {
+            this.fetchMetadata = new FetchMetadataDB(env, dbConfig);
+        }
+
+        // setup the hash database
+        this.urlDB = new UrlDB(env, dbConfig, config.isKeepFullURL());
+
+        // setup all the shards
+        // all the databases share one environment, so a page can be scheduled in one transaction
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new FrontierShard(env, dbConfig, "workDB_" + i, config);
+        }
+
+        if (config.isResumable()) {
+            this.committer = new GroupCommitter(env, config);
+        }
+
+        // near duplicate pages are detected across runs in resumable mode
+        if (config.getDuplicatePolicy() != SimHashIndex.DuplicatePolicy.KEEP) {
+            this.duplicateIndex = new SimHashIndex(config.isResumable() ? env : null, dbConfig, config.getDuplicateDistance());
+        }
+
+        // rebuild the seen sets from last run
+        if (config.isResumable()) {
+            urlDB.forEachFingerprint((fingerprint, hostHash) -> shards[getShardIndex(hostHash)].addSeen(fingerprint));
+        }
     }
 
 
@@ -56,61 +184,341 @@ public class Frontier {
      * @param config The config of crawler defined by user
      */
     public void setWorkQueue(CrawlerConfig config) {
-        for (WebURL url : config.getSeedURL()) {
+        List<WebURL> seeds = new ArrayList<>();
+        UrlFingerprintSet canonicals = new UrlFingerprintSet(config.getSeedURL().size() * 32L);
+        for (WebURL seed : config.getSeedURL()) {
+            String canonical = config.getCanonicalizer().canonicalize(seed.getUrl());
+            if (canonical == null)
+                continue;
+
+            // skip repeated seeds
+            WebURL url = new WebURL(canonical, seed.getDepth());
+            if (canonicals.contains(url.getFingerprint()))
+                continue;
+            canonicals.add(url.getFingerprint());
+
             if (config.shouldVisit(url)) {
-                if (urlDB.getID(url.getUrl()) == -1) {
-                    workDB.put(url);
-                    urlDB.put(url.getUrl());
-                }
+                seeds.add(url);
             }
         }   // end of loop
+        admitAll(seeds);
+        signalWork();
     }
 
     /**
      * Schedule all the outgoing links to the workQueue
-     * Links will be tested against the shouldVisit rule first
+     * Links are rewritten to their canonical form and tested against the shouldVisit rule first
+     * Links repeated on the page, e.g. in nav bars and footers, are handled only once
      *
      * @param links  Extracted links from jsoup class
      * @param depth  Depth for these links
      * @param config The config of crawler defined by user
      */
     public void scheduleWork(Elements links, short depth, CrawlerConfig config) {
-        synchronized (mutex) {
+        List<String> hrefs = new ArrayList<>(links.size());
+        for (Element link : links)
+            hrefs.add(link.attr("abs:href"));
+        scheduleWork(hrefs, depth, config);
+    }
+
+    /**
+     * Schedule all the outgoing links to the workQueue
+     *
+     * @param hrefs  Absolute links of the page
+     * @param depth  Depth for these links
+     * @param config The config of crawler defined by user
+     */
+    public void scheduleWork(List<String> hrefs, short depth, CrawlerConfig config) {
+        List<WebURL> urls = new ArrayList<>(hrefs.size());
+        UrlCanonicalizer canonicalizer = config.getCanonicalizer();
+
+        // small sets for the links of this page only
+        UrlFingerprintSet seenHrefs = new UrlFingerprintSet(hrefs.size() * 32L);
+        UrlFingerprintSet canonicals = new UrlFingerprintSet(hrefs.size() * 32L);
+
+        // scan all the links
+        for (String href : hrefs) {
+            long fingerprint = UrlFingerprintSet.fingerprint(href);
+            if (seenHrefs.contains(fingerprint))
+                continue;
+            seenHrefs.add(fingerprint);
+
+            // skip links can't be crawled
+            String canonical = canonicalizer.canonicalize(href);
+            if (canonical == null)
+                continue;
+
+            WebURL url = new WebURL(canonical, depth);
+            if (canonicals.contains(url.getFingerprint()))
+                continue;
+            canonicals.add(url.getFingerprint());
+
+            // test against shouldVisit rule
+            if (config.shouldVisit(url)) {
+                urls.add(url);
+            }
+        } // end of scan
+
+        // wake up waiting workers
+        if (admitAll(urls))
+            signalWork();
+    }
+
+    /**
+     * Admit the urls which have not been met before
+     * Each shard checks and writes its urls as one batch
+     * In resumable mode all the urls of a page are written in one transaction,
+     * their shards are locked in order and held until it's committed and applied in memory,
+     * an aborted page leaves nothing behind, and fsync is waited for after the locks are released
+     * Otherwise only the shard being updated is locked, so other threads can work meanwhile
+     *
+     * @param urls Urls passed the shouldVisit rule
+     * @return True if any url is admitted
+     */
+    private boolean admitAll(List<WebURL> urls) {
+        if (urls.isEmpty())
+            return false;
 
-            // scan all the links
-            for (Element link : links) {
-                WebURL url = new WebURL(link.attr("abs:href"), depth);
+        // group the urls by shard
+        List<List<WebURL>> groups = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++)
+            groups.add(null);
+        for (WebURL url : urls) {
+            int index = getShardIndex(url);
+            if (groups.get(index) == null)
+                groups.set(index, new ArrayList<>());
+            groups.get(index).add(url);
+        }
+
+        boolean admitted = false;
+        if (committer == null) {
+            for (int i = 0; i < shards.length; i++) {
+                if (groups.get(i) == null)
+                    continue;
+                shards[i].lock();
+                try {
+                    admitted |= shards[i].admitAll(groups.get(i), urlDB) > 0;
+                } finally {
+                    shards[i].unlock();
+                }
+            }
+            return admitted;
+        }
+
+        // lock in ascending order to avoid deadlock between pages
+        int locked = 0;
+        boolean committed = false;
+        Transaction tnx = null;
+        try {
+            for (; locked < shards.length; locked++) {
+                if (groups.get(locked) != null)
+                    shards[locked].lock();
+            }
+
+            // write all the shards first, memory is only changed once the page is committed
+            List<List<QueueEntry>> written = new ArrayList<>(shards.length);
+            tnx = committer.begin();
+            for (int i = 0; i < shards.length; i++)
+                written.add(groups.get(i) == null ? null : shards[i].writeAll(groups.get(i), urlDB, tnx));
+            committer.commit(tnx);
+            tnx = null;
+            committed = true;
+
+            for (int i = 0; i < shards.length; i++) {
+                if (written.get(i) == null)
+                    continue;
+                shards[i].commitAll(written.get(i));
+                admitted |= !written.get(i).isEmpty();
+            }
+        } catch (Exception e) {
+            System.out.println("Failed to schedule links!");
+            if (tnx != null)
+                committer.abort(tnx);
+            admitted = false;
+        } finally {
+            for (int i = 0; i < locked; i++) {
+                if (groups.get(i) != null)
+                    shards[i].unlock();
+            }
+        }
 
-                // test against shouldVisit rule
-                if (config.shouldVisit(url)) {
+        if (committed)
+            committer.awaitDurable();
+        return admitted;
+    }
+
+    /**
+     * Return a list of links for worker thread to process next
+     * Wait until new urls are admitted if the frontier is empty
+     *
+     * @param size         How many pages should be retrieved for one time
+     * @param crawlerQueue Sub workQueue for single thread
+     * @param timeout      Maximum milliseconds to wait
+     * @throws InterruptedException On interrupted while waiting
+     */
+    public void getNextURL(int size, List<WebURL> crawlerQueue, long timeout) throws InterruptedException {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(timeout);
 
-                    // test if page has met before
-                    if (urlDB.getID(url.getUrl()) == -1) {
-                        workDB.put(url);
-                        urlDB.put(url.getUrl());
-                    }
+        while (true) {
+            long seen = admissions.get();
+            getNextURL(size, crawlerQueue);
+            if (!crawlerQueue.isEmpty())
+                return;
 
+            idleLock.lock();
+            waitingWorkers.incrementAndGet();
+            try {
+                while (admissions.get() == seen && remaining > 0) {
+                    remaining = workAdmitted.awaitNanos(remaining);
                 }
-            } // end of scan
+                if (admissions.get() == seen)
+                    return;
+            } finally {
+                waitingWorkers.decrementAndGet();
+                idleLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Wait until no url is in flight and no url can be assigned
+     * The crawl can not produce more work after that
+     *
+     * @param timeout Maximum milliseconds to wait
+     * @return True if the crawl is finished
+     * @throws InterruptedException On interrupted while waiting
+     */
+    public boolean awaitTermination(long timeout) throws InterruptedException {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(timeout);
+
+        idleLock.lock();
+        try {
+            while (!isFinished()) {
+                if (remaining <= 0)
+                    return false;
+                remaining = workFinished.awaitNanos(remaining);
+            }
+            return true;
+        } finally {
+            idleLock.unlock();
+        }
+    }
+
+    /**
+     * Return whether the crawl is finished
+     * Urls are only admitted by workers holding an in flight url, and they signal before finishing it,
+     * so an unchanged admission count means the empty frontier was not refilled meanwhile
+     *
+     * @return True if no url is in flight and no url can be assigned
+     */
+    private boolean isFinished() {
+        long seen = admissions.get();
+        return !hasWork() && inFlight.get() == 0 && admissions.get() == seen;
+    }
+
+    /**
+     * Mark an assigned url as finished
+     * Should be called after its links are scheduled, or after it failed
+     */
+    public void finishURL() {
+        release(1);
+    }
+
+    /**
+     * Decrease the in flight count, signal the monitor when it's zero
+     *
+     * @param count Number of urls finished
+     */
+    private void release(int count) {
+        if (count > 0 && inFlight.addAndGet(-count) == 0) {
+            idleLock.lock();
+            try {
+                workFinished.signalAll();
+            } finally {
+                idleLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Return whether some url can still be assigned
+     *
+     * @return True if the frontier is not empty and the page limit is not reached
+     */
+    public boolean hasWork() {
+        if (maxPages >= 0 && assignedPages.get() >= maxPages)
+            return false;
+
+        for (FrontierShard shard : shards) {
+            if (shard.getPageNumber() > 0)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Wake up all the workers waiting for urls
+     */
+    private void signalWork() {
+        admissions.incrementAndGet();
+        if (waitingWorkers.get() > 0) {
+            idleLock.lock();
+            try {
+                workAdmitted.signalAll();
+            } finally {
+                idleLock.unlock();
+            }
         }
     }
 
     /**
      * Return a list of links for worker thread to process next
+     * Shards are visited round robin so threads start from different shards
+     * Each returned url must be finished with finishURL
      *
      * @param size         How many pages should be retrieved for one time
      * @param crawlerQueue Sub workQueue for single thread
      */
     public void getNextURL(int size, List<WebURL> crawlerQueue) {
-        synchronized (mutex) {
-            if (maxPages < 0 || (workDB.getPageNumber() + size < maxPages)) {
-                crawlerQueue.addAll(workDB.getWebURLs(size));
-                workDB.delete(size);
-            } else if (workDB.getPageNumber() < maxPages) {
-                crawlerQueue.addAll(workDB.getWebURLs(maxPages - workDB.getPageNumber()));
-                workDB.delete(maxPages - workDB.getPageNumber());
-            }
+
+        // count the urls as in flight before they leave the queue
+        inFlight.addAndGet(size);
+
+        // reserve the page quota first
+        int quota = size;
+        if (maxPages >= 0) {
+            int assigned;
+            do {
+                assigned = assignedPages.get();
+                quota = Math.min(size, maxPages - assigned);
+                if (quota <= 0) {
+                    release(size);
+                    return;
+                }
+            } while (!assignedPages.compareAndSet(assigned, assigned + quota));
+        }
+
+        int start = Math.floorMod(nextShard.getAndIncrement(), shards.length);
+        int count = 0;
+        for (int i = 0; i < shards.length && count < quota; i++) {
+            List<WebURL> urls = shards[(start + i) % shards.length].poll(quota - count);
+            crawlerQueue.addAll(urls);
+            count += urls.size();
+        }
+
+        // give back unused quota
+        if (maxPages >= 0 && count < quota) {
+            assignedPages.addAndGet(count - quota);
         }
+        release(size - count);
+    }
+
+    private int getShardIndex(WebURL url) {
+        return getShardIndex(url.getHost().hashCode());
+    }
+
+    private int getShardIndex(int hostHash) {
+        return Math.floorMod(hostHash, shards.length);
     }
 
     // /**
@@ -135,18 +543,52 @@ public class Frontier {
      * @param url Url for website in String
      * @return The hashcode for the url
      */
-    public int getHash(String url) {
-        int urlID = -1;
+    public long getHash(String url) {
+        long urlID = -1;
         urlID = urlDB.getID(url);
 
         return urlID;
     }
 
+    /**
+     * Return the hash of a page whose text is near duplicate to the given page
+     * Remember the page if there is none
+     *
+     * @param simHash SimHash of the page text
+     * @param hash    Hash of the page
+     * @return Hash of the page met before, or -1 if the page is new
+     */
+    public long findDuplicate(long simHash, long hash) {
+        if (duplicateIndex == null)
+            return -1;
+        return duplicateIndex.findOrAdd(simHash, hash);
+    }
+
+    /**
+     * Return the store of last fetches
+     *
+     * @return The fetch metadata database, null if conditional fetch is off
+     */
+    public FetchMetadataDB getFetchMetadata() {
+        return fetchMetadata;
+    }
+
     /**
      * Action before shutdown
+     * Close all the databases before their environment
      */
     public void shutdown() {
+        if (committer != null)
+            committer.close();
+        for (FrontierShard shard : shards)
+            shard.close();
+        if (duplicateIndex != null)
+            duplicateIndex.closeDB();
+        if (fetchMetadata != null)
+            fetchMetadata.closeDB();
         urlDB.closeDB();
+        metaDB.closeDB();
+        env.close();
     }
 
 }
@@ -0,0 +1,83 @@
+import org.jsoup.Jsoup;
+import org.jsoup.select.Elements;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Check that a page whose transaction aborts leaves nothing behind in memory,
+ * so its urls are admitted when the page is scheduled again
+ */
+public class FrontierAbortTest {
+
+    private static final int LINKS = 40;
+
+    public static void main(String[] args) {
+        // start from an empty frontier
+        File workPath = new File(System.getProperty("java.io.tmpdir"), "frontier-abort-test");
+        File[] files = workPath.listFiles();
+        if (files != null) {
+            for (File file : files)
+                file.delete();
+        }
+        workPath.mkdirs();
+
+        // fail the transaction on the last url scored, after the other shards are written
+        AtomicInteger scoresLeft = new AtomicInteger(LINKS);
+        CrawlerConfig config = new CrawlerConfig() {
+            @Override
+            public double score(WebURL url) {
+                if (scoresLeft.decrementAndGet() == 0)
+                    throw new IllegalStateException("Forced abort");
+                return 0;
+            }
+        };
+        config.setWorkPath(workPath.getPath());
+        config.setResumable(true);
+        config.setNumberOfShards(4);
+
+        // links to many hosts, so the page spans several shards
+        StringBuilder html = new StringBuilder("<html><body>");
+        for (int i = 0; i < LINKS; i++)
+            html.append("<a href=\"http://host").append(i).append(".com/page\">link</a>");
+        html.append("</body></html>");
+        Elements links = Jsoup.parse(html.toString(), "http://host0.com/").select("a[href]");
+
+        Frontier frontier = new Frontier(config);
+        boolean passed = true;
+
+        frontier.scheduleWork(links, (short) 1, config);
+        if (frontier.hasWork()) {
+            System.out.println("Failed: urls of the aborted page are still queued");
+            passed = false;
+        }
+
+        // schedule the same page again, every url must be admitted once
+        frontier.scheduleWork(links, (short) 1, config);
+        Set<String> polled = new HashSet<>();
+        List<WebURL> queue = new ArrayList<>();
+        int count = 0;
+        do {
+            queue.clear();
+            frontier.getNextURL(LINKS, queue);
+            for (WebURL url : queue) {
+                polled.add(url.getUrl());
+                frontier.finishURL();
+            }
+            count += queue.size();
+        } while (!queue.isEmpty());
+
+        if (polled.size() != LINKS || count != LINKS) {
+            System.out.println("Failed: " + polled.size() + " distinct of " + count + " urls polled, expected " + LINKS);
+            passed = false;
+        }
+
+        frontier.shutdown();
+        System.out.println(passed ? "Passed: aborted page left nothing behind" : "Failed");
+        System.exit(passed ? 0 : 1);
+    }
+}
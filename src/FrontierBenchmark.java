@@ -0,0 +1,109 @@
+import org.jsoup.Jsoup;
+import org.jsoup.select.Elements;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measure how link admission scales with worker threads,
+ * for one frontier shard, as the single locked frontier did, and for several shards
+ */
+public class FrontierBenchmark {
+
+    private static final int PAGES = 4000;
+    private static final int LINKS = 60;
+    private static final int HOSTS = 200;
+
+    public static void main(String[] args) throws Exception {
+        List<Elements> pages = buildPages();
+
+        // warm up once before measuring
+        run(pages, 1, 8, "warmup");
+        for (int shards : new int[]{1, 8, 16}) {
+            long single = 0;
+            for (int threads : new int[]{1, 2, 4, 8}) {
+                long time = run(pages, shards, threads, "shards_" + shards + "_threads_" + threads);
+                if (threads == 1)
+                    single = time;
+                System.out.printf("shards=%d threads=%d pages=%d time=%dms speedup=%.2f%n",
+                        shards, threads, PAGES, time, (double) single / Math.max(1, time));
+            }
+        }
+    }
+
+    /**
+     * Build fixed pages, links to the same hosts repeat across pages
+     *
+     * @return Links of each page
+     */
+    private static List<Elements> buildPages() {
+        Random random = new Random(42);
+        List<Elements> pages = new ArrayList<>(PAGES);
+        for (int i = 0; i < PAGES; i++) {
+            StringBuilder html = new StringBuilder("<html><body>");
+            for (int j = 0; j < LINKS; j++) {
+                html.append("<a href=\"http://host").append(random.nextInt(HOSTS))
+                        .append(".com/page/").append(random.nextInt(PAGES * 4)).append("\">link</a>");
+            }
+            html.append("</body></html>");
+            pages.add(Jsoup.parse(html.toString(), "http://host0.com/").select("a[href]"));
+        }
+        return pages;
+    }
+
+    /**
+     * Schedule all the pages from several threads, each thread also takes urls back
+     *
+     * @param pages   Links of each page
+     * @param shards  Number of frontier shards
+     * @param threads Number of worker threads
+     * @param name    Name of the work directory
+     * @return Elapsed milliseconds
+     * @throws InterruptedException On interrupted while waiting for threads
+     */
+    private static long run(List<Elements> pages, int shards, int threads, String name) throws InterruptedException {
+        // start from an empty frontier
+        File workPath = new File(System.getProperty("java.io.tmpdir"), "frontier-benchmark/" + name);
+        File[] files = workPath.listFiles();
+        if (files != null) {
+            for (File file : files)
+                file.delete();
+        }
+        workPath.mkdirs();
+
+        CrawlerConfig config = new CrawlerConfig();
+        config.setWorkPath(workPath.getPath());
+        config.setResumable(false);
+        config.setMaxPages(-1);
+        config.setNumberOfShards(shards);
+        Frontier frontier = new Frontier(config);
+
+        AtomicInteger next = new AtomicInteger(0);
+        Thread[] workers = new Thread[threads];
+        long start = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(() -> {
+                List<WebURL> queue = new ArrayList<>();
+                int page;
+                while ((page = next.getAndIncrement()) < pages.size()) {
+                    frontier.scheduleWork(pages.get(page), (short) 1, config);
+
+                    queue.clear();
+                    frontier.getNextURL(10, queue);
+                    for (int j = 0; j < queue.size(); j++)
+                        frontier.finishURL();
+                }
+            });
+            workers[i].start();
+        }
+        for (Thread worker : workers)
+            worker.join();
+        long time = (System.nanoTime() - start) / 1000000;
+
+        frontier.shutdown();
+        return time;
+    }
+}
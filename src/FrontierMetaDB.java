@@ -0,0 +1,79 @@
+import com.sleepycat.je.*;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Format version and shard count of the frontier databases
+ * Fingerprint keys and the work queue of each host depend on both, so a folder is only resumed with the same ones
+ */
+public class FrontierMetaDB {
+
+    /**
+     * Name of the database
+     */
+    public static final String NAME = "frontierMeta";
+
+    /**
+     * Raised whenever the keys or values of the frontier databases change
+     */
+    public static final int FORMAT_VERSION = 2;
+
+    private static final DatabaseEntry KEY = new DatabaseEntry(new byte[]{0});
+
+    private Database metadb;
+
+    /**
+     * Default constructor
+     * Record the format and shard count in a new folder, check them in a folder from last run
+     *
+     * @param env            The shared environment
+     * @param dbConfig       The database config
+     * @param numberOfShards Number of work queue shards
+     * @throws IllegalStateException If the folder was written with another format or shard count
+     */
+    public FrontierMetaDB(Environment env, DatabaseConfig dbConfig, int numberOfShards) {
+        // databases without the record are from before it, e.g. url string keys and int queue keys
+        boolean legacy = false;
+        for (String name : env.getDatabaseNames()) {
+            if (!name.equals(NAME) && !name.equals(FetchMetadataDB.NAME))
+                legacy = true;
+        }
+
+        this.metadb = env.openDatabase(null, NAME, dbConfig);
+        DatabaseEntry value = new DatabaseEntry();
+        if (metadb.get(null, KEY, value, null) != OperationStatus.SUCCESS) {
+            if (legacy)
+                reject("The work path holds a frontier of an older format, remove it or crawl with resumable off");
+            metadb.put(null, KEY, new DatabaseEntry(ByteBuffer.allocate(8).putInt(FORMAT_VERSION).putInt(numberOfShards).array()));
+            return;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(value.getData(), value.getOffset(), value.getSize());
+        int version = buffer.getInt();
+        int shards = buffer.getInt();
+        if (version != FORMAT_VERSION)
+            reject("The work path holds a frontier of format " + version + ", expected " + FORMAT_VERSION + ", remove it or crawl with resumable off");
+        if (shards != numberOfShards)
+            reject("The work path holds a frontier of " + shards + " shards, resume it with numberOfShards " + shards);
+    }
+
+    /**
+     * Close the database and refuse the folder
+     *
+     * @param message Reason of the refusal
+     */
+    private void reject(String message) {
+        System.out.println("Failed to resume the frontier!");
+        metadb.close();
+        throw new IllegalStateException(message);
+    }
+
+    /**
+     * Close the database
+     * The environment is closed by its owner
+     */
+    public void closeDB() {
+        if (metadb != null)
+            metadb.close();
+    }
+}
@@ -0,0 +1,192 @@
+import com.sleepycat.je.DatabaseConfig;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.Transaction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Part of the frontier holding the urls of some hosts
+ */
+public class FrontierShard {
+
+    /**
+     * Work queue for the hosts belong to this shard
+     * Kept in memory until it's too large
+     */
+    private HybridWorkQueue workQueue;
+
+    /**
+     * Fingerprints of the urls met before in this shard
+     */
+    private UrlFingerprintSet seenSet;
+
+    private CrawlerConfig config;
+
+    /**
+     * Held by the frontier while admitting urls, may span a whole page transaction until it commits
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Default constructor
+     * Open the work queue of this shard
+     *
+     * @param env      The shared environment
+     * @param dbConfig The database config
+     * @param name     Name of the work queue database
+     * @param config   The config of crawler defined by user
+     */
+    public FrontierShard(Environment env, DatabaseConfig dbConfig, String name, CrawlerConfig config) {
+        this.config = config;
+        // every url must be on disk to resume the crawl
+        int maxMemory = config.isResumable() ? 0 : config.getSizeOfMemoryQueue();
+        this.workQueue = new HybridWorkQueue(new WorkQueueDB(env, dbConfig, name), maxMemory);
+        this.seenSet = new UrlFingerprintSet(config.getSeenSetMemory() / config.getNumberOfShards());
+    }
+
+    public void lock() {
+        lock.lock();
+    }
+
+    public void unlock() {
+        lock.unlock();
+    }
+
+    /**
+     * Put the urls into work queue if they have not been met before
+     * Urls should be distinct, caller must hold the lock of this shard
+     *
+     * @param urls  Urls for website of one page
+     * @param urlDB The shared url database
+     * @return Number of urls admitted
+     */
+    public int admitAll(List<WebURL> urls, UrlDB urlDB) {
+        List<WebURL> admitted = filter(urls, urlDB);
+        if (admitted.isEmpty())
+            return 0;
+
+        workQueue.putAll(admitted, score(admitted));
+        for (WebURL url : admitted)
+            seenSet.add(url.getFingerprint());
+        urlDB.putAll(admitted, null);
+        return admitted.size();
+    }
+
+    /**
+     * Write the urls not met before in the transaction of a page
+     * Nothing in memory changes until commitAll is called after the transaction commits
+     * Urls should be distinct, caller must hold the lock of this shard until then
+     *
+     * @param urls  Urls for website of one page
+     * @param urlDB The shared url database
+     * @param tnx   Transaction of the page
+     * @return Entries written, to be passed to commitAll
+     */
+    public List<QueueEntry> writeAll(List<WebURL> urls, UrlDB urlDB, Transaction tnx) {
+        List<WebURL> admitted = filter(urls, urlDB);
+        if (admitted.isEmpty())
+            return Collections.emptyList();
+
+        List<QueueEntry> entries = workQueue.writeAll(admitted, score(admitted), tnx);
+        urlDB.putAll(admitted, tnx);
+        return entries;
+    }
+
+    /**
+     * Add the entries of a committed transaction to the queue and the seen set
+     *
+     * @param entries Entries returned by writeAll
+     */
+    public void commitAll(List<QueueEntry> entries) {
+        if (entries.isEmpty())
+            return;
+
+        workQueue.commitAll(entries);
+        for (QueueEntry entry : entries)
+            seenSet.add(entry.getUrl().getFingerprint());
+    }
+
+    /**
+     * Return the urls not met before
+     *
+     * @param urls  Urls for website of one page
+     * @param urlDB The shared url database
+     * @return Urls not in the seen set nor in database
+     */
+    private List<WebURL> filter(List<WebURL> urls, UrlDB urlDB) {
+        // drop the urls probably seen
+        List<WebURL> admitted = new ArrayList<>(urls.size());
+        for (WebURL url : urls) {
+            if (!seenSet.contains(url.getFingerprint()))
+                admitted.add(url);
+        }
+
+        // only check database if some urls are not in the seen set
+        if (seenSet.isSaturated() && !admitted.isEmpty()) {
+            long[] fingerprints = new long[admitted.size()];
+            for (int i = 0; i < fingerprints.length; i++)
+                fingerprints[i] = admitted.get(i).getFingerprint();
+
+            boolean[] found = urlDB.containsAll(fingerprints);
+            List<WebURL> unseen = new ArrayList<>(admitted.size());
+            for (int i = 0; i < found.length; i++) {
+                if (!found[i])
+                    unseen.add(admitted.get(i));
+            }
+            admitted = unseen;
+        }
+        return admitted;
+    }
+
+    private double[] score(List<WebURL> urls) {
+        double[] scores = new double[urls.size()];
+        for (int i = 0; i < scores.length; i++)
+            scores[i] = config.score(urls.get(i));
+        return scores;
+    }
+
+    /**
+     * Mark a url as seen without scheduling it
+     * Used to rebuild the seen set when the crawler resumes
+     *
+     * @param fingerprint Fingerprint of the url
+     */
+    public void addSeen(long fingerprint) {
+        lock.lock();
+        try {
+            seenSet.add(fingerprint);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Read and remove at most size urls with the highest scores from the work queue
+     * Wait for the running page transaction, so the cursor never blocks on its record locks
+     *
+     * @param size How many urls should be retrieved
+     * @return Urls removed from the queue
+     */
+    public List<WebURL> poll(int size) {
+        lock.lock();
+        try {
+            return workQueue.pollBatch(size);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getPageNumber() {
+        return workQueue.getPageNumber();
+    }
+
+    /**
+     * Close the work queue database
+     */
+    public void close() {
+        workQueue.close();
+    }
+}
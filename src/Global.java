@@ -1,6 +0,0 @@
-/**
- * Created by Lanslot on 4/20/2017.
- */
-public class Global {
-    public static boolean hasJSON=false;
-}
@@ -0,0 +1,157 @@
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.Transaction;
+import com.sleepycat.je.TransactionConfig;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Commits transactions and syncs the log for a group of commits at once
+ */
+public final class GroupCommitter {
+
+    /**
+     * How far a commit is written before it returns
+     */
+    public enum Durability {
+        /**
+         * Write and fsync the log on each commit
+         */
+        SYNC,
+        /**
+         * Write the log to the file system on each commit, fsync by group
+         */
+        WRITE_NO_SYNC,
+        /**
+         * Keep the log in memory on each commit, write and fsync by group
+         */
+        NO_SYNC
+    }
+
+    private Environment env;
+    private TransactionConfig txnConfig;
+
+    /**
+     * Whether each commit is already synced
+     */
+    private boolean sync;
+
+    /**
+     * Number of commits not synced yet
+     */
+    private AtomicInteger pending;
+
+    /**
+     * Number of commits synced together
+     */
+    private int groupCommitSize;
+
+    /**
+     * Timer to sync the pending commits periodically
+     */
+    private ScheduledExecutorService timer;
+
+    /**
+     * Default constructor
+     * Start the timer unless each commit is synced
+     *
+     * @param env    The shared environment
+     * @param config The config of crawler defined by user
+     */
+    public GroupCommitter(Environment env, CrawlerConfig config) {
+        this.env = env;
+        this.pending = new AtomicInteger(0);
+        this.groupCommitSize = config.getGroupCommitSize();
+        this.sync = config.getCommitDurability() == Durability.SYNC;
+
+        this.txnConfig = new TransactionConfig();
+        switch (config.getCommitDurability()) {
+            // fsync in awaitDurable, after the caller released its locks
+            case SYNC:
+            case WRITE_NO_SYNC:
+                txnConfig.setDurability(com.sleepycat.je.Durability.COMMIT_WRITE_NO_SYNC);
+                break;
+            default:
+                txnConfig.setDurability(com.sleepycat.je.Durability.COMMIT_NO_SYNC);
+        }
+
+        if (!sync) {
+            timer = Executors.newSingleThreadScheduledExecutor();
+            timer.scheduleWithFixedDelay(this::flush, config.getGroupCommitInterval(), config.getGroupCommitInterval(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Begin a transaction with the configured durability
+     *
+     * @return The transaction
+     */
+    public Transaction begin() {
+        return env.beginTransaction(null, txnConfig);
+    }
+
+    /**
+     * Commit the transaction without waiting for fsync
+     * Call awaitDurable afterwards, once no lock is held
+     *
+     * @param tnx The transaction
+     */
+    public void commit(Transaction tnx) {
+        tnx.commit();
+        pending.incrementAndGet();
+    }
+
+    /**
+     * Wait until the commits are as durable as configured
+     * Fsync right away in SYNC mode, concurrent callers share the fsync
+     * Otherwise fsync only when enough commits are pending
+     */
+    public void awaitDurable() {
+        if (sync) {
+            pending.set(0);
+            try {
+                env.flushLog(true);
+            } catch (Exception e) {
+                System.out.println("Failed to sync database log!");
+            }
+        } else if (pending.get() >= groupCommitSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Abort the transaction
+     *
+     * @param tnx The transaction
+     */
+    public void abort(Transaction tnx) {
+        try {
+            tnx.abort();
+        } catch (Exception e) {
+            System.out.println("Failed to abort transaction!");
+        }
+    }
+
+    /**
+     * Write and fsync all the pending commits
+     */
+    public void flush() {
+        try {
+            if (pending.getAndSet(0) > 0)
+                env.flushLog(true);
+        } catch (Exception e) {
+            System.out.println("Failed to sync database log!");
+        }
+    }
+
+    /**
+     * Sync the pending commits and stop the timer
+     */
+    public void close() {
+        if (timer != null)
+            timer.shutdown();
+        flush();
+    }
+}
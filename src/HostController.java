@@ -0,0 +1,215 @@
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adjusts the delay and concurrency of each host by its responses
+ * Requests wait for a host on its Permits, never inside the monitor of its state,
+ * so a slow host doesn't pin the carriers of virtual threads
+ */
+public class HostController {
+
+    /**
+     * Delay and concurrency of a host, adjusted by its responses
+     * The monitor only guards the numbers, it's never held while waiting
+     */
+    private static class HostState {
+
+        /**
+         * Delay between two requests in milliseconds
+         */
+        private double delay;
+
+        /**
+         * Number of requests allowed at the same time, fractional so it grows slowly
+         */
+        private double limit = 1;
+
+        /**
+         * Requests running to the host, limited by the integer part of limit
+         */
+        private final Permits permits = new Permits(1);
+
+        /**
+         * Moving average of response time in milliseconds, negative before the first response
+         */
+        private double latency = -1;
+
+        private HostState(double delay) {
+            this.delay = delay;
+        }
+    }
+
+    private ConcurrentHashMap<String, HostState> hosts;
+
+    private long initialDelay;
+    private long minDelay;
+    private long maxDelay;
+    private int maxFetchesPerHost;
+    private long targetLatency;
+
+    /**
+     * Milliseconds removed from the delay on each fast response
+     */
+    private long delayStep;
+
+    /**
+     * Default constructor
+     *
+     * @param config The config of crawler defined by user
+     */
+    public HostController(CrawlerConfig config) {
+        this.hosts = new ConcurrentHashMap<>();
+        this.minDelay = Math.max(0, config.getMinVisitDelay());
+        this.maxDelay = Math.max(minDelay, config.getMaxVisitDelay());
+        this.initialDelay = Math.max(minDelay, Math.min(maxDelay, config.getVisitDelay()));
+        this.maxFetchesPerHost = Math.max(1, config.getMaxFetchesPerHost());
+        this.targetLatency = config.getTargetLatency();
+        this.delayStep = Math.max(10, minDelay);
+    }
+
+    private HostState getState(String host) {
+        return hosts.computeIfAbsent(host, k -> new HostState(initialDelay));
+    }
+
+    /**
+     * Return the current delay between two requests to the host
+     *
+     * @param host Host of the link
+     * @return Delay in milliseconds
+     */
+    public long getDelay(String host) {
+        HostState state = getState(host);
+        synchronized (state) {
+            return (long) state.delay;
+        }
+    }
+
+    /**
+     * Wait until the host allows one more request
+     * Keep waiting if interrupted, the request must be sent once it's accepted
+     *
+     * @param host Host of the link
+     */
+    public void acquire(String host) {
+        getState(host).permits.acquire();
+    }
+
+    /**
+     * Allow one more request to the host without blocking
+     * The callback runs right away if the host is under its limit, otherwise once a request is given back
+     *
+     * @param host     Host of the link
+     * @param callback Action sending the request, must give it back with release
+     */
+    public void acquire(String host, Runnable callback) {
+        getState(host).permits.acquire(callback);
+    }
+
+    /**
+     * Give back the request allowed by acquire
+     *
+     * @param host Host of the link
+     */
+    public void release(String host) {
+        getState(host).permits.release();
+    }
+
+    /**
+     * Record the outcome of a response from its status
+     * 429 and 503 mean the host asks to slow down, other 5xx mean it's struggling
+     *
+     * @param host       Host of the link
+     * @param statusCode Status code of the response
+     * @param retryAfter Value of Retry-After header, null if none
+     * @param latency    Milliseconds until the response headers arrived
+     */
+    public void onResponse(String host, int statusCode, String retryAfter, long latency) {
+        if (statusCode == 429 || statusCode == 503) {
+            long wait = 0;
+            try {
+                if (retryAfter != null)
+                    wait = TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+            } catch (NumberFormatException e) {
+                // ignore http date
+            }
+            onThrottled(host, wait);
+        } else if (statusCode >= 500) {
+            onError(host);
+        } else {
+            onSuccess(host, latency);
+        }
+    }
+
+    /**
+     * Record a successful response
+     * Speed up additively while the host answers fast, slow down a bit when it gets slow
+     *
+     * @param host    Host of the link
+     * @param latency Response time in milliseconds
+     */
+    public void onSuccess(String host, long latency) {
+        HostState state = getState(host);
+        List<Runnable> granted;
+        synchronized (state) {
+            state.latency = state.latency < 0 ? latency : state.latency * 0.8 + latency * 0.2;
+
+            if (state.latency <= targetLatency) {
+                state.delay = Math.max(minDelay, state.delay - delayStep);
+                state.limit = Math.min(maxFetchesPerHost, state.limit + 1 / state.limit);
+            } else {
+                state.delay = Math.min(maxDelay, Math.max(minDelay + delayStep, state.delay * 1.1));
+            }
+            granted = state.permits.setLimit((int) state.limit);
+        }
+
+        // send the requests allowed by the higher limit outside the monitor
+        for (Runnable callback : granted)
+            callback.run();
+    }
+
+    /**
+     * Record a 429 or 503 response
+     * Halve the speed, and wait at least as long as the host asked for
+     *
+     * @param host       Host of the link
+     * @param retryAfter Milliseconds from Retry-After header, 0 if none
+     */
+    public void onThrottled(String host, long retryAfter) {
+        HostState state = getState(host);
+        List<Runnable> granted;
+        synchronized (state) {
+            granted = backOff(state);
+            state.delay = Math.min(maxDelay, Math.max(state.delay, retryAfter));
+        }
+        for (Runnable callback : granted)
+            callback.run();
+    }
+
+    /**
+     * Record a timeout, connection failure or server error
+     *
+     * @param host Host of the link
+     */
+    public void onError(String host) {
+        HostState state = getState(host);
+        List<Runnable> granted;
+        synchronized (state) {
+            granted = backOff(state);
+        }
+        for (Runnable callback : granted)
+            callback.run();
+    }
+
+    /**
+     * Double the delay and halve the concurrency
+     *
+     * @param state State of the host
+     * @return Callbacks allowed by the new limit, to be run outside the monitor
+     */
+    private List<Runnable> backOff(HostState state) {
+        state.delay = Math.min(maxDelay, Math.max(minDelay + delayStep, state.delay * 2));
+        state.limit = Math.max(1, state.limit / 2);
+        return state.permits.setLimit((int) state.limit);
+    }
+}
@@ -0,0 +1,88 @@
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Limits the requests running to each host
+ * A host is dropped once no request holds or waits for its permits, so only busy hosts are kept
+ */
+public class HostPermits {
+
+    /**
+     * Permits of a host and the number of requests holding or waiting for them
+     */
+    private static class Entry {
+
+        private final Permits permits;
+
+        /**
+         * Changed only inside compute of the map, so it's never raced with the removal
+         */
+        private int users;
+
+        private Entry(int limit) {
+            this.permits = new Permits(limit);
+        }
+    }
+
+    private ConcurrentHashMap<String, Entry> hosts;
+
+    private int limit;
+
+    /**
+     * Default constructor
+     *
+     * @param limit Number of requests allowed to each host at the same time
+     */
+    public HostPermits(int limit) {
+        this.hosts = new ConcurrentHashMap<>();
+        this.limit = limit;
+    }
+
+    /**
+     * Wait until the host allows one more request
+     *
+     * @param host Host of the link
+     */
+    public void acquire(String host) {
+        enter(host).permits.acquire();
+    }
+
+    /**
+     * Take a request of the host without blocking
+     * The callback runs once the host allows one more request, see Permits.acquire
+     *
+     * @param host     Host of the link
+     * @param callback Action sending the request, must give it back with release
+     */
+    public void acquire(String host, Runnable callback) {
+        enter(host).permits.acquire(callback);
+    }
+
+    /**
+     * Count one more request holding or waiting for the host
+     *
+     * @param host Host of the link
+     * @return Entry of the host
+     */
+    private Entry enter(String host) {
+        return hosts.compute(host, (k, v) -> {
+            Entry e = v == null ? new Entry(limit) : v;
+            e.users++;
+            return e;
+        });
+    }
+
+    /**
+     * Give back the request allowed by acquire
+     * The host is dropped if no other request holds or waits for it
+     *
+     * @param host Host of the link
+     */
+    public void release(String host) {
+        Entry entry = hosts.get(host);
+        if (entry == null)
+            return;
+
+        entry.permits.release();
+        hosts.computeIfPresent(host, (k, e) -> --e.users == 0 ? null : e);
+    }
+}
@@ -1,3 +1,5 @@
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.config.CookieSpecs;
@@ -7,23 +9,33 @@ import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 
 import java.io.IOException;
-import java.util.Date;
-import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by Lanslot on 2017/4/11.
  */
-public class HttpResponseClient {
+public class HttpResponseClient implements Fetcher {
 
-    private final Object mutex = new Object();
     private CloseableHttpClient httpClient;
 
     /**
-     * Last timestamp thread is working
+     * Maximum number of bytes read from a response body
      */
-    private long lastVisitTime;
+    private int maxContentBytes;
+
+    /**
+     * Keep the politeness delay for each host
+     */
+    private PolitenessScheduler scheduler;
+
+    /**
+     * Validators and content hash of the last fetch of each url, null if conditional fetch is off
+     */
+    private FetchMetadataDB metadataDB;
 
     /**
      * Default constructor
@@ -32,10 +44,28 @@ public class HttpResponseClient {
      * @param config The config of crawler defined by user
      */
     public HttpResponseClient(CrawlerConfig config) {
-        this.lastVisitTime = 0;
+        this(config, null);
+    }
+
+    /**
+     * Constructor with conditional fetch
+     * Pages not modified since the last fetch are skipped
+     *
+     * @param config     The config of crawler defined by user
+     * @param metadataDB The store of last fetches, null to fetch every page
+     */
+    public HttpResponseClient(CrawlerConfig config, FetchMetadataDB metadataDB) {
+        this.metadataDB = metadataDB;
+        this.scheduler = new PolitenessScheduler(config.isAdaptivePoliteness() ? new HostController(config) : null);
+        this.maxContentBytes = config.getMaxContentBytes();
         this.httpClient = preCookHttpClient(config);
     }
 
+    @Override
+    public PolitenessScheduler getScheduler() {
+        return scheduler;
+    }
+
     /**
      * Set up the default header of HTTP requests according to config
      *
@@ -45,7 +75,20 @@ public class HttpResponseClient {
     public CloseableHttpClient preCookHttpClient(CrawlerConfig config) {
         RequestConfig customRequest = RequestConfig.custom().setExpectContinueEnabled(false).setCookieSpec(CookieSpecs.STANDARD).setRedirectsEnabled(false).setSocketTimeout(config.getSocketTimeout()).setConnectionRequestTimeout(config.getConnectionTimeout()).build();
 
+        // limit connections explicitly instead of 2 per route and 20 in total
+        // in virtual thread mode every fetch holding the global and host permits gets its own connection
+        int maxTotal = config.getMaxConnectionsTotal();
+        int maxPerRoute = config.getMaxConnectionsPerRoute();
+        if (config.isVirtualThreads()) {
+            maxTotal = Math.max(maxTotal, config.getMaxConcurrentFetches());
+            maxPerRoute = Math.max(maxPerRoute, config.getMaxFetchesPerHost());
+        }
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxTotal);
+        connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+
         HttpClientBuilder clientBuilder = HttpClientBuilder.create();
+        clientBuilder.setConnectionManager(connectionManager);
         clientBuilder.setDefaultRequestConfig(customRequest);
         clientBuilder.setUserAgent(config.getUserAgent());
 
@@ -64,68 +107,174 @@ public class HttpResponseClient {
      * Establish http connection with the url and get its response
      *
      * @param url        Link should be visited
-     * @param visitDelay Delay between two requests
+     * @param visitDelay Delay between two requests to the same host
      * @return Result of http request
      */
-    public String getResponse(WebURL url, long visitDelay) {
+    @Override
+    public PageContent getResponse(WebURL url, long visitDelay) {
+
+        if (url.getUrl() == null)
+            return null;
+
+        try {
+            // wait for politeness delay of this host
+            long waitTime = scheduler.reserve(url.getHost(), visitDelay);
+            if (waitTime > 0) {
+                Thread.sleep(waitTime);
+            }
+        } catch (InterruptedException ie) {
+            System.out.println("Http Client failed to sleep!");
+            return null;
+        }
+
+        return execute(url);
+    }
+
+    /**
+     * Visit the url on this thread
+     * The result is completed before the future is returned
+     *
+     * @param url        Link should be visited
+     * @param visitDelay Delay between two requests to the same host
+     * @return Completed result of http request
+     */
+    @Override
+    public CompletableFuture<PageContent> getResponseAsync(WebURL url, long visitDelay) {
+        return CompletableFuture.completedFuture(getResponse(url, visitDelay));
+    }
+
+    /**
+     * Send the http request right away and get its response
+     * Return NOT_MODIFIED if the page is not modified since the last fetch
+     *
+     * @param url Link should be visited
+     * @return Result of http request
+     */
+    @Override
+    public PageContent execute(WebURL url) {
 
         if (url.getUrl() == null)
             return null;
 
         HttpUriRequest httpUriRequest = null;
         HttpResponseResult responseResult = new HttpResponseResult();
-        String html = null;
+        PageContent content = null;
+        HostController controller = scheduler.getController();
+        long start = System.nanoTime();
 
         try {
-            // wait for politeness delay
-            synchronized (mutex) {
-                long now = new Date().getTime();
-                if (now - lastVisitTime < visitDelay) {
-                    Thread.sleep(visitDelay - (now - lastVisitTime));
-                }
-                lastVisitTime = new Date().getTime();
-            }
+            FetchMetadata metadata = metadataDB == null ? null : metadataDB.get(url);
 
             // establish http connection
             httpUriRequest = new HttpGet(url.getUrl());
             httpUriRequest.addHeader("Content-Type", "charset=UTF-8");
-            CloseableHttpResponse httpResponse = this.httpClient.execute(httpUriRequest);
-            responseResult.setStatusCode(httpResponse.getStatusLine().getStatusCode());
-            responseResult.setResponseHeaders(httpResponse.getAllHeaders());
-            responseResult.setHttpEntity(httpResponse.getEntity());
-
-            // do something according to the response
-            if (responseResult.getStatusCode() == HttpStatus.SC_OK) {   // is 200
-                html = fetch(responseResult);
+
+            // ask the server to skip the body if nothing changed
+            // only once the links are recorded, they are scheduled instead of the body's
+            if (metadata != null && metadata.getOutlinks() != null) {
+                if (metadata.getEtag() != null)
+                    httpUriRequest.addHeader("If-None-Match", metadata.getEtag());
+                if (metadata.getLastModified() != null)
+                    httpUriRequest.addHeader("If-Modified-Since", metadata.getLastModified());
             }
 
-            httpResponse.close();
+            // the connection goes back to the pool even if reading the response fails
+            try (CloseableHttpResponse httpResponse = this.httpClient.execute(httpUriRequest)) {
+                responseResult.setStatusCode(httpResponse.getStatusLine().getStatusCode());
+                responseResult.setResponseHeaders(httpResponse.getAllHeaders());
+                responseResult.setHttpEntity(httpResponse.getEntity());
+
+                // let the host controller know how the host is doing
+                if (controller != null)
+                    controller.onResponse(url.getHost(), responseResult.getStatusCode(), getHeader(responseResult, "Retry-After"), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+                // do something according to the response
+                if (responseResult.getStatusCode() == HttpStatus.SC_OK) {   // is 200
+                    content = remember(url, metadata, responseResult, fetch(responseResult));
+                } else if (responseResult.getStatusCode() == HttpStatus.SC_NOT_MODIFIED && metadata != null) {  // is 304
+                    metadataDB.putNotModified(url, metadata);
+                    content = NOT_MODIFIED;
+                }
+            }
 
-        } catch (InterruptedException ie) {
-            System.out.println("Http Client failed to sleep!");
         } catch (Exception e) {
-            System.out.println("Failed to execute Http request!");
+            System.out.println("Failed to execute Http request! " + e.getClass().getSimpleName() + ": " + url.getUrl());
+            if (controller != null)
+                controller.onError(url.getHost());
+            content = null;
         } finally {
             if (responseResult.getHttpEntity() == null && httpUriRequest != null)
                 httpUriRequest.abort();
         }
-        return html;
+        return content;
     }
 
     /**
-     * Get html content from the response
+     * Store the validators and content hash of a fetched page
+     * Return NOT_MODIFIED if the content is the same as the last fetch, for servers without validators
      *
+     * @param url            Link visited
+     * @param last           Metadata of the last fetch, null if never fetched
      * @param responseResult Response of the connection
-     * @return Html content of the page
-     * @throws IOException On failed to read content
+     * @param content        Body of the page
+     * @return Body of the page, or NOT_MODIFIED if it's not changed
      */
-    public String fetch(HttpResponseResult responseResult) throws IOException {
-        Scanner scanner = new Scanner(responseResult.getHttpEntity().getContent(), "UTF-8");
-        StringBuilder stringBuilder = new StringBuilder();
+    private PageContent remember(WebURL url, FetchMetadata last, HttpResponseResult responseResult, PageContent content) {
+        if (metadataDB == null || content == null)
+            return content;
+
+        if (!metadataDB.putFetch(url, last, getHeader(responseResult, "ETag"), getHeader(responseResult, "Last-Modified"), content.hash()))
+            return content;
+        content.release();
+        return NOT_MODIFIED;
+    }
 
-        while (scanner.hasNext()) {
-            stringBuilder.append(scanner.nextLine()).append('\n');
+    /**
+     * Return the value of the first header with the name
+     *
+     * @param responseResult Response of the connection
+     * @param name           Name of the header
+     * @return Value of the header, null if not found
+     */
+    private static String getHeader(HttpResponseResult responseResult, String name) {
+        if (responseResult.getResponseHeaders() == null)
+            return null;
+
+        for (Header header : responseResult.getResponseHeaders()) {
+            if (header.getName().equalsIgnoreCase(name))
+                return header.getValue();
         }
-        return stringBuilder.toString();
+        return null;
+    }
+
+    /**
+     * Release all the connections
+     */
+    @Override
+    public void close() {
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            System.out.println("Failed to close Http client!");
+        }
+    }
+
+    /**
+     * Get the body from the response
+     * Read it into a pooled buffer and stop at maxContentBytes, the bytes are handed to the parser as they are
+     * The rest of a truncated body is dropped when the response is closed
+     *
+     * @param responseResult Response of the connection
+     * @return Body of the page
+     * @throws IOException On failed to read content
+     */
+    public PageContent fetch(HttpResponseResult responseResult) throws IOException {
+        HttpEntity entity = responseResult.getHttpEntity();
+        if (entity == null)
+            return null;
+
+        PageContent content = new PageContent(maxContentBytes, PageContent.charsetOf(getHeader(responseResult, "Content-Type")));
+        content.read(entity.getContent());
+        return content;
     }
 }
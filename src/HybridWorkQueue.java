@@ -0,0 +1,221 @@
+import com.sleepycat.je.Transaction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Work queue kept in memory, spilled to database when it grows too large
+ */
+public class HybridWorkQueue {
+
+    private WorkQueueDB workDB;
+
+    /**
+     * Best urls of the queue, always polled from memory
+     */
+    private PriorityQueue<QueueEntry> head;
+
+    /**
+     * Urls not better than the ones in database
+     * Written to database in one batch when memory is full
+     */
+    private List<QueueEntry> tail;
+
+    /**
+     * Best entry may be in database or tail
+     * Null if it's unknown or nothing has been spilled
+     */
+    private QueueEntry boundary;
+
+    /**
+     * Maximum number of urls kept in memory
+     */
+    private int maxMemory;
+
+    private final Object mutex = new Object();
+
+    /**
+     * Default constructor
+     * Set maxMemory to 0 to write every url through to database
+     *
+     * @param workDB    The work queue database
+     * @param maxMemory Maximum number of urls kept in memory
+     */
+    public HybridWorkQueue(WorkQueueDB workDB, int maxMemory) {
+        this.workDB = workDB;
+        this.maxMemory = Math.max(0, maxMemory);
+        this.head = new PriorityQueue<>();
+        this.tail = new ArrayList<>();
+        this.boundary = null;
+    }
+
+    /**
+     * Put url into the queue
+     * Urls with higher score will be polled first
+     *
+     * @param url   Url for website
+     * @param score Score of the url
+     */
+    public void put(WebURL url, double score) {
+        putAll(Collections.singletonList(url), new double[]{score});
+    }
+
+    /**
+     * Put urls into the queue under one lock, spill at most once
+     *
+     * @param urls   Urls for website
+     * @param scores Score of each url
+     */
+    public void putAll(List<WebURL> urls, double[] scores) {
+        List<QueueEntry> entries = new ArrayList<>(urls.size());
+        for (int i = 0; i < urls.size(); i++)
+            entries.add(workDB.newEntry(urls.get(i), scores[i]));
+
+        synchronized (mutex) {
+            for (QueueEntry entry : entries) {
+                // keep all the urls in head better than the spilled ones
+                if (workDB.getPageNumber() == 0 && tail.isEmpty()) {
+                    head.add(entry);
+                } else if (boundary != null && entry.compareTo(boundary) < 0) {
+                    head.add(entry);
+                } else {
+                    tail.add(entry);
+                }
+            }
+
+            if (head.size() + tail.size() > maxMemory)
+                spill();
+        }
+    }
+
+    /**
+     * Write urls straight to database in the transaction of a page
+     * The queue does not change until commitAll is called after the transaction commits,
+     * so nothing is left behind in memory if it aborts
+     *
+     * @param urls   Urls for website
+     * @param scores Score of each url
+     * @param tnx    Transaction of the page
+     * @return Entries written, to be passed to commitAll
+     */
+    public List<QueueEntry> writeAll(List<WebURL> urls, double[] scores, Transaction tnx) {
+        List<QueueEntry> entries = new ArrayList<>(urls.size());
+        for (int i = 0; i < urls.size(); i++)
+            entries.add(workDB.newEntry(urls.get(i), scores[i]));
+
+        workDB.putBatch(entries, tnx);
+        return entries;
+    }
+
+    /**
+     * Count the entries of a committed transaction as part of the queue
+     *
+     * @param entries Entries returned by writeAll
+     */
+    public void commitAll(List<QueueEntry> entries) {
+        synchronized (mutex) {
+            workDB.countCommitted(entries.size());
+
+            // the best entry in database may be one of them now
+            for (QueueEntry entry : entries) {
+                if (boundary != null && entry.compareTo(boundary) < 0)
+                    boundary = entry;
+            }
+        }
+    }
+
+    /**
+     * Read and remove at most size urls with the highest scores
+     *
+     * @param size How many urls should be retrieved
+     * @return Urls removed from the queue
+     */
+    public List<WebURL> pollBatch(int size) {
+        synchronized (mutex) {
+            List<WebURL> urlList = new ArrayList<>();
+
+            while (urlList.size() < size) {
+                if (!head.isEmpty()) {
+                    urlList.add(head.poll().getUrl());
+                } else if (workDB.getPageNumber() == 0 && !tail.isEmpty()) {
+                    // nothing on disk, tail becomes the head
+                    head.addAll(tail);
+                    tail.clear();
+                    boundary = null;
+                } else if (workDB.getPageNumber() > 0) {
+                    refill(size - urlList.size());
+                } else {
+                    break;
+                }
+            }
+
+            return urlList;
+        }
+    }
+
+    /**
+     * Return the number of urls waiting in the queue
+     *
+     * @return Size of the queue
+     */
+    public long getPageNumber() {
+        synchronized (mutex) {
+            return head.size() + tail.size() + workDB.getPageNumber();
+        }
+    }
+
+    /**
+     * Close the database, urls left in memory are dropped
+     */
+    public void close() {
+        synchronized (mutex) {
+            head.clear();
+            tail.clear();
+            workDB.closeDB();
+        }
+    }
+
+    /**
+     * Write tail to database, and the worse half of head if it's still too large
+     */
+    private void spill() {
+        flushTail();
+        if (head.size() <= maxMemory)
+            return;
+
+        QueueEntry[] entries = head.toArray(new QueueEntry[0]);
+        Arrays.sort(entries);
+        int keep = maxMemory / 2;
+
+        List<QueueEntry> spilled = Arrays.asList(entries).subList(keep, entries.length);
+        workDB.putBatch(spilled, null);
+        boundary = spilled.get(0);
+
+        head.clear();
+        head.addAll(Arrays.asList(entries).subList(0, keep));
+    }
+
+    /**
+     * Move the best urls from database to head in one batch
+     *
+     * @param size Minimum number of urls to move
+     */
+    private void refill(int size) {
+        flushTail();
+        List<QueueEntry> entries = workDB.pollEntries(Math.max(size, maxMemory / 2));
+        head.addAll(entries);
+
+        // all the urls left in database are not better than the last one moved
+        boundary = workDB.getPageNumber() == 0 || entries.isEmpty() ? null : entries.get(entries.size() - 1);
+    }
+
+    private void flushTail() {
+        if (!tail.isEmpty()) {
+            workDB.putBatch(tail, null);
+            tail.clear();
+        }
+    }
+}
@@ -0,0 +1,460 @@
+import java.net.CookieManager;
+import java.net.InetSocketAddress;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fetcher sending requests with the non-blocking http client of the JDK
+ * No thread waits for a response: politeness delays go through a timer, requests over a limit wait as callbacks,
+ * and bodies are copied into pooled buffers as they arrive, so a few threads keep maxConnectionsTotal requests in flight
+ */
+public class NonBlockingHttpFetcher implements Fetcher {
+
+    private HttpClient httpClient;
+
+    /**
+     * Threads reading the responses and completing the futures
+     * The selector thread of the client only moves bytes
+     */
+    private ExecutorService callbackExecutor;
+
+    /**
+     * Timer for politeness delays and body timeouts
+     */
+    private ScheduledExecutorService timer;
+
+    /**
+     * Keep the politeness delay for each host
+     */
+    private PolitenessScheduler scheduler;
+
+    /**
+     * Validators and content hash of the last fetch of each url, null if conditional fetch is off
+     */
+    private FetchMetadataDB metadataDB;
+
+    /**
+     * Limit of requests not finished yet, including the ones waiting for politeness or a permit
+     * Blocks the caller instead of queuing requests without bound
+     */
+    private Semaphore outstanding;
+
+    /**
+     * Requests in flight to each host, used when no host controller limits them
+     */
+    private HostPermits hostPermits;
+
+    /**
+     * Requests in flight in total
+     */
+    private Permits totalPermits;
+
+    /**
+     * Maximum number of bytes read from a response body
+     */
+    private int maxContentBytes;
+
+    /**
+     * Milliseconds to wait for the headers and for each part of the body, 0 to wait forever
+     */
+    private int socketTimeout;
+
+    private String userAgent;
+
+    /**
+     * Default constructor
+     * The limits of connections per route and in total are kept as limits of requests in flight
+     *
+     * @param config     The config of crawler defined by user
+     * @param metadataDB The store of last fetches, null to fetch every page
+     */
+    public NonBlockingHttpFetcher(CrawlerConfig config, FetchMetadataDB metadataDB) {
+        this.metadataDB = metadataDB;
+        this.scheduler = new PolitenessScheduler(config.isAdaptivePoliteness() ? new HostController(config) : null);
+        this.maxContentBytes = config.getMaxContentBytes();
+        this.socketTimeout = config.getSocketTimeout();
+        this.userAgent = config.getUserAgent();
+        this.callbackExecutor = Executors.newFixedThreadPool(Math.max(1, config.getFetchThreads()));
+        this.timer = Executors.newSingleThreadScheduledExecutor();
+        this.hostPermits = new HostPermits(config.getMaxConnectionsPerRoute());
+        this.totalPermits = new Permits(config.getMaxConnectionsTotal());
+        this.outstanding = new Semaphore(Math.max(config.getMaxConnectionsTotal(), config.getNumberOfCrawler() * config.getSizeOfWorkQueue()));
+
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .cookieHandler(new CookieManager())
+                .executor(callbackExecutor);
+        if (config.getConnectionTimeout() > 0)
+            builder.connectTimeout(Duration.ofMillis(config.getConnectionTimeout()));
+        if (config.getProxyHost() != null)
+            builder.proxy(ProxySelector.of(new InetSocketAddress(config.getProxyHost(), config.getProxyPort())));
+        this.httpClient = builder.build();
+    }
+
+    @Override
+    public PolitenessScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Visit the url and wait for its body
+     *
+     * @param url        Link should be visited
+     * @param visitDelay Delay between two requests to the same host
+     * @return Body of the page, null if failed, or NOT_MODIFIED
+     */
+    @Override
+    public PageContent getResponse(WebURL url, long visitDelay) {
+        return fetch(url, visitDelay, true).join();
+    }
+
+    /**
+     * Send the request without politeness delay and wait for its body
+     *
+     * @param url Link should be visited
+     * @return Body of the page, null if failed, or NOT_MODIFIED
+     */
+    @Override
+    public PageContent execute(WebURL url) {
+        return fetch(url, 0, false).join();
+    }
+
+    /**
+     * Send the request once the host is due, without waiting for its response
+     * Block the caller while too many requests are not finished
+     * The future is always completed, with null if the request failed
+     *
+     * @param url        Link should be visited
+     * @param visitDelay Delay between two requests to the same host
+     * @return Future completed with the body, null if failed, or NOT_MODIFIED
+     */
+    @Override
+    public CompletableFuture<PageContent> getResponseAsync(WebURL url, long visitDelay) {
+        return fetch(url, visitDelay, true);
+    }
+
+    /**
+     * Wait for politeness on the timer, then for the host and total permits as callbacks, then send the request
+     *
+     * @param url        Link should be visited
+     * @param visitDelay Delay between two requests to the same host
+     * @param polite     Whether to wait for the politeness delay
+     * @return Future completed with the body, null if failed, or NOT_MODIFIED
+     */
+    private CompletableFuture<PageContent> fetch(WebURL url, long visitDelay, boolean polite) {
+        CompletableFuture<PageContent> future = new CompletableFuture<>();
+        if (url.getUrl() == null) {
+            future.complete(null);
+            return future;
+        }
+
+        try {
+            outstanding.acquire();
+        } catch (InterruptedException e) {
+            System.out.println("Http Client failed to wait!");
+            Thread.currentThread().interrupt();
+            future.complete(null);
+            return future;
+        }
+        future.whenComplete((content, e) -> outstanding.release());
+
+        try {
+            FetchMetadata metadata = metadataDB == null ? null : metadataDB.get(url);
+            HttpRequest request = newRequest(url, metadata);
+            Runnable send = () -> acquire(url.getHost(), () -> send(url, metadata, request, future));
+
+            long waitTime = polite ? scheduler.reserve(url.getHost(), visitDelay) : 0;
+            if (waitTime > 0)
+                timer.schedule(send, waitTime, TimeUnit.MILLISECONDS);
+            else
+                send.run();
+        } catch (Exception e) {
+            System.out.println("Failed to submit Http request! " + e.getClass().getSimpleName() + ": " + url.getUrl());
+            future.complete(null);
+        }
+        return future;
+    }
+
+    /**
+     * Build the request with the conditional headers of the last fetch
+     *
+     * @param url      Link should be visited
+     * @param metadata Metadata of the last fetch, null if never fetched
+     * @return Request of the url
+     */
+    private HttpRequest newRequest(WebURL url, FetchMetadata metadata) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url.getUrl())).GET();
+        if (userAgent != null)
+            builder.header("User-Agent", userAgent);
+        if (socketTimeout > 0)
+            builder.timeout(Duration.ofMillis(socketTimeout));
+
+        // ask the server to skip the body if nothing changed
+        // only once the links are recorded, they are scheduled instead of the body's
+        if (metadata != null && metadata.getOutlinks() != null) {
+            if (metadata.getEtag() != null)
+                builder.header("If-None-Match", metadata.getEtag());
+            if (metadata.getLastModified() != null)
+                builder.header("If-Modified-Since", metadata.getLastModified());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Take a request of the host, then one of the total, without blocking
+     * The adaptive limit of the host controller replaces maxConnectionsPerRoute when it's on
+     *
+     * @param host     Host of the link
+     * @param callback Action sending the request, runs once both are taken
+     */
+    private void acquire(String host, Runnable callback) {
+        Runnable total = () -> totalPermits.acquire(callback);
+        HostController controller = scheduler.getController();
+        if (controller == null)
+            hostPermits.acquire(host, total);
+        else
+            controller.acquire(host, total);
+    }
+
+    /**
+     * Give back the requests taken by acquire
+     *
+     * @param host Host of the link
+     */
+    private void release(String host) {
+        totalPermits.release();
+        HostController controller = scheduler.getController();
+        if (controller == null)
+            hostPermits.release(host);
+        else
+            controller.release(host);
+    }
+
+    /**
+     * Send the request holding the permits
+     * The permits are given back before the page is processed by the future
+     *
+     * @param url      Link should be visited
+     * @param metadata Metadata of the last fetch, null if never fetched
+     * @param request  Request of the url
+     * @param future   Future of the request
+     */
+    private void send(WebURL url, FetchMetadata metadata, HttpRequest request, CompletableFuture<PageContent> future) {
+        long start = System.nanoTime();
+        try {
+            httpClient.sendAsync(request, info -> subscribe(url, info, start)).whenComplete((response, e) -> {
+                release(url.getHost());
+                PageContent content;
+                try {
+                    content = e == null ? finish(url, metadata, response) : fail(url, e);
+                } catch (Exception ex) {
+                    content = fail(url, ex);
+                }
+                future.complete(content);
+            });
+        } catch (Exception e) {
+            release(url.getHost());
+            future.complete(fail(url, e));
+        }
+    }
+
+    /**
+     * Choose how to read the body once the headers arrived
+     * Only the body of 200 is kept, the others are dropped
+     *
+     * @param url   Link visited
+     * @param info  Status and headers of the response
+     * @param start Nano time the request was sent
+     * @return Subscriber of the body
+     */
+    private HttpResponse.BodySubscriber<PageContent> subscribe(WebURL url, HttpResponse.ResponseInfo info, long start) {
+        // let the host controller know how the host is doing
+        HostController controller = scheduler.getController();
+        if (controller != null)
+            controller.onResponse(url.getHost(), info.statusCode(), info.headers().firstValue("Retry-After").orElse(null), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        if (info.statusCode() != 200)
+            return HttpResponse.BodySubscribers.replacing(null);
+
+        PageContent content = new PageContent(maxContentBytes, PageContent.charsetOf(info.headers().firstValue("Content-Type").orElse(null)));
+        return new BodyReader(content, timer, socketTimeout);
+    }
+
+    /**
+     * Do something according to the response
+     *
+     * @param url      Link visited
+     * @param metadata Metadata of the last fetch, null if never fetched
+     * @param response Response with its body
+     * @return Body of the page, null if failed, or NOT_MODIFIED
+     */
+    private PageContent finish(WebURL url, FetchMetadata metadata, HttpResponse<PageContent> response) {
+        if (response.statusCode() == 200)
+            return remember(url, metadata, response);
+
+        if (response.statusCode() == 304 && metadata != null) {
+            metadataDB.putNotModified(url, metadata);
+            return NOT_MODIFIED;
+        }
+        return null;
+    }
+
+    /**
+     * Store the validators and content hash of a fetched page
+     * Return NOT_MODIFIED if the content is the same as the last fetch, for servers without validators
+     *
+     * @param url      Link visited
+     * @param last     Metadata of the last fetch, null if never fetched
+     * @param response Response with its body
+     * @return Body of the page, or NOT_MODIFIED if it's not changed
+     */
+    private PageContent remember(WebURL url, FetchMetadata last, HttpResponse<PageContent> response) {
+        PageContent content = response.body();
+        if (metadataDB == null || content == null)
+            return content;
+
+        String etag = response.headers().firstValue("ETag").orElse(null);
+        String lastModified = response.headers().firstValue("Last-Modified").orElse(null);
+        if (!metadataDB.putFetch(url, last, etag, lastModified, content.hash()))
+            return content;
+        content.release();
+        return NOT_MODIFIED;
+    }
+
+    /**
+     * Report a failed request
+     *
+     * @param url Link visited
+     * @param e   Cause of the failure
+     * @return Null as the body
+     */
+    private PageContent fail(WebURL url, Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        System.out.println("Failed to execute Http request! " + cause.getClass().getSimpleName() + ": " + url.getUrl());
+        HostController controller = scheduler.getController();
+        if (controller != null)
+            controller.onError(url.getHost());
+        return null;
+    }
+
+    /**
+     * Stop the threads, requests in flight are dropped
+     */
+    @Override
+    public void close() {
+        timer.shutdown();
+        callbackExecutor.shutdown();
+    }
+
+    /**
+     * Copies the parts of a body into a page content as they arrive
+     * Stops at maxContentBytes and drops the rest with the connection,
+     * fails if no part arrives within the socket timeout
+     */
+    private static class BodyReader implements HttpResponse.BodySubscriber<PageContent> {
+
+        private final PageContent content;
+
+        private final CompletableFuture<PageContent> body = new CompletableFuture<>();
+
+        private final ScheduledExecutorService timer;
+
+        /**
+         * Milliseconds to wait for each part, 0 to wait forever
+         */
+        private final long timeout;
+
+        private volatile Flow.Subscription subscription;
+
+        /**
+         * Nano time the last part arrived
+         */
+        private volatile long lastRead;
+
+        private BodyReader(PageContent content, ScheduledExecutorService timer, long timeout) {
+            this.content = content;
+            this.timer = timer;
+            this.timeout = timeout;
+        }
+
+        @Override
+        public CompletionStage<PageContent> getBody() {
+            return body;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            this.lastRead = System.nanoTime();
+            if (timeout > 0)
+                schedule(timeout);
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> parts) {
+            lastRead = System.nanoTime();
+            for (ByteBuffer part : parts)
+                content.write(part);
+
+            if (content.isFull()) {
+                subscription.cancel();
+                body.complete(content);
+            } else {
+                subscription.request(1);
+            }
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            body.completeExceptionally(e);
+        }
+
+        @Override
+        public void onComplete() {
+            body.complete(content);
+        }
+
+        /**
+         * Cancel the body if it's idle for the timeout, check again later otherwise
+         */
+        private void checkTimeout() {
+            if (body.isDone())
+                return;
+
+            long idle = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastRead);
+            if (idle < timeout) {
+                schedule(timeout - idle);
+                return;
+            }
+            subscription.cancel();
+            body.completeExceptionally(new HttpTimeoutException("body timed out"));
+        }
+
+        private void schedule(long delay) {
+            try {
+                timer.schedule(this::checkTimeout, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // the fetcher is closed
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Check the non-blocking fetcher against a local server
+ * Every url is finished whether its request completed, failed or timed out,
+ * only the pages answered with 200 are parsed and published,
+ * and more requests are in flight than the fetcher has threads
+ */
+public class NonBlockingHttpFetcherTest {
+
+    private static final int WAIT_PAGES = 100;
+
+    private static final int FETCH_THREADS = 2;
+
+    public static void main(String[] args) throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/ok", exchange -> respond(exchange, "ok"));
+        server.createContext("/wait/", exchange -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(300);
+            } catch (InterruptedException e) {
+                System.out.println("Server thread interrupted!");
+            }
+            running.decrementAndGet();
+            respond(exchange, "wait " + exchange.getRequestURI().getPath().substring(6));
+        });
+        server.createContext("/error", exchange -> {
+            exchange.sendResponseHeaders(500, -1);
+            exchange.close();
+        });
+        server.createContext("/slow", exchange -> {
+            try {
+                Thread.sleep(3000);
+            } catch (InterruptedException e) {
+                System.out.println("Server thread interrupted!");
+            }
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        // daemon threads, so a failed check never keeps the JVM alive
+        server.setExecutor(Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.start();
+
+        boolean passed = false;
+        try {
+            passed = crawl(server, maxRunning);
+        } finally {
+            server.stop(0);
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static boolean crawl(HttpServer server, AtomicInteger maxRunning) throws Exception {
+        // a port nobody listens on
+        int closedPort;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            closedPort = socket.getLocalPort();
+        }
+
+        String host = "http://127.0.0.1:" + server.getAddress().getPort();
+        CrawlerConfig config = new CrawlerConfig();
+        config.addSeedURL(host + "/ok");
+        config.addSeedURL(host + "/error");
+        config.addSeedURL(host + "/slow");
+        config.addSeedURL("http://127.0.0.1:" + closedPort + "/refused");
+        for (int i = 0; i < WAIT_PAGES; i++)
+            config.addSeedURL(host + "/wait/" + i);
+        config.setNonBlockingFetch(true);
+        config.setFetchThreads(FETCH_THREADS);
+        config.setMaxConnectionsPerRoute(WAIT_PAGES);
+        config.setVisitDelay(-1);
+        config.setSocketTimeout(1000);
+        config.setMaxDepth(1);
+        config.setResumable(false);
+
+        File workPath = new File(System.getProperty("java.io.tmpdir"), "non-blocking-fetcher-test");
+        workPath.mkdirs();
+        config.setWorkPath(workPath.getPath());
+
+        Set<String> published = new ConcurrentSkipListSet<>();
+        Frontier frontier = new Frontier(config);
+        NonBlockingHttpFetcher fetcher = new NonBlockingHttpFetcher(config, null);
+        ResultPipeline results = new ResultPipeline(config, batch -> batch.forEach(page -> published.add(page.getTitle())));
+        results.start();
+
+        frontier.setWorkQueue(config);
+        Thread crawler = new Thread(new WebCrawler(config, frontier, fetcher, results), "Crawler 0");
+        crawler.start();
+
+        // the slow page times out after a second, so all of them are finished well within 20 seconds
+        boolean finished = frontier.awaitTermination(20000);
+
+        crawler.interrupt();
+        crawler.join();
+        results.close();
+        fetcher.close();
+        frontier.shutdown();
+
+        Set<String> expected = new TreeSet<>();
+        expected.add("ok");
+        for (int i = 0; i < WAIT_PAGES; i++)
+            expected.add("wait " + i);
+
+        boolean passed = true;
+        if (!finished) {
+            System.out.println("Failed: some urls never finished");
+            passed = false;
+        }
+        if (!expected.equals(new TreeSet<>(published))) {
+            System.out.println("Failed: published " + published.size() + " pages, expected " + expected.size());
+            passed = false;
+        }
+        if (maxRunning.get() <= FETCH_THREADS) {
+            System.out.println("Failed: only " + maxRunning.get() + " requests in flight");
+            passed = false;
+        }
+        if (passed)
+            System.out.println("Passed: " + published.size() + " pages published, up to " + maxRunning.get() + " requests in flight on " + FETCH_THREADS + " threads");
+        return passed;
+    }
+
+    private static void respond(HttpExchange exchange, String title) throws IOException {
+        byte[] body = ("<html><head><title>" + title + "</title></head><body>Page content of " + title + "</body></html>").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "text/html; charset=UTF-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
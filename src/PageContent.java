@@ -0,0 +1,173 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Body of a fetched page, kept as bytes in a pooled buffer until it's parsed
+ */
+public class PageContent {
+
+    /**
+     * Size of the reusable buffers, most pages fit in one
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Reusable buffers shared by all threads
+     * Only buffers of BUFFER_SIZE are kept, larger ones are dropped after use
+     */
+    private static final ArrayBlockingQueue<byte[]> BUFFERS = new ArrayBlockingQueue<>(64);
+
+    private byte[] buffer;
+    private int length;
+
+    /**
+     * Maximum number of bytes kept, the rest of the body is dropped
+     */
+    private int maxLength;
+
+    /**
+     * Charset from the Content-Type header, null to let the parser find it in the page
+     */
+    private String charset;
+
+    /**
+     * Default constructor
+     * The buffer is taken from the pool on the first write
+     *
+     * @param maxLength Maximum number of bytes kept
+     * @param charset   Charset from the Content-Type header, null if unknown
+     */
+    public PageContent(int maxLength, String charset) {
+        this.maxLength = maxLength;
+        this.charset = charset;
+    }
+
+    /**
+     * Read the body until its end or maxLength
+     * The stream is not closed, so a truncated body can be dropped by its connection
+     *
+     * @param in Stream of the body
+     * @throws IOException On failed to read content
+     */
+    public void read(InputStream in) throws IOException {
+        while (!isFull()) {
+            ensureSpace();
+            int read = in.read(buffer, length, Math.min(buffer.length, maxLength) - length);
+            if (read < 0)
+                break;
+            length += read;
+        }
+    }
+
+    /**
+     * Append the bytes of a body part, the ones over maxLength are dropped
+     *
+     * @param part Part of the body
+     */
+    public void write(ByteBuffer part) {
+        while (part.hasRemaining() && !isFull()) {
+            ensureSpace();
+            int count = Math.min(part.remaining(), Math.min(buffer.length, maxLength) - length);
+            part.get(buffer, length, count);
+            length += count;
+        }
+    }
+
+    /**
+     * Take a buffer from the pool, or grow the buffer until the size limit
+     */
+    private void ensureSpace() {
+        if (buffer == null) {
+            buffer = BUFFERS.poll();
+            if (buffer == null)
+                buffer = new byte[BUFFER_SIZE];
+        } else if (length == buffer.length) {
+            buffer = Arrays.copyOf(buffer, (int) Math.min(maxLength, buffer.length * 2L));
+        }
+    }
+
+    /**
+     * Return whether maxLength bytes are kept
+     *
+     * @return True if no more byte is kept
+     */
+    public boolean isFull() {
+        return length >= maxLength;
+    }
+
+    /**
+     * Return the body as a stream for the parser, without copying it
+     *
+     * @return Stream of the body
+     */
+    public InputStream getInputStream() {
+        return buffer == null ? new ByteArrayInputStream(new byte[0]) : new ByteArrayInputStream(buffer, 0, length);
+    }
+
+    public String getCharset() {
+        return charset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Return the 64-bit hash of the body
+     * Use FNV-1a over the bytes
+     *
+     * @return Hash of the content
+     */
+    public long hash() {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < length; i++) {
+            hash ^= buffer[i] & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Give the buffer back to the pool once the body is parsed
+     * The content is empty afterwards
+     */
+    public void release() {
+        if (buffer != null && buffer.length == BUFFER_SIZE)
+            BUFFERS.offer(buffer);
+        buffer = null;
+        length = 0;
+    }
+
+    /**
+     * Return the charset of a Content-Type header value
+     *
+     * @param contentType Value of the header, may be null
+     * @return Name of a supported charset, null if none is given
+     */
+    public static String charsetOf(String contentType) {
+        if (contentType == null)
+            return null;
+
+        int index = contentType.toLowerCase().indexOf("charset=");
+        if (index < 0)
+            return null;
+
+        int start = index + 8;
+        int end = start;
+        while (end < contentType.length() && contentType.charAt(end) != ';')
+            end++;
+        String name = contentType.substring(start, end).trim().replace("\"", "").replace("'", "");
+
+        try {
+            return Charset.isSupported(name) ? name : null;
+        } catch (Exception e) {
+            // ignore illegal charset name
+            return null;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Counts the requests running against a limit, like a semaphore whose limit can change
+ * Waiting uses a lock and condition instead of a monitor, so a blocked virtual thread doesn't pin its carrier
+ * Callers that must not block leave a callback instead, which runs once a permit is given back
+ */
+public class Permits {
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Signaled when a permit is given back
+     */
+    private final Condition available = lock.newCondition();
+
+    /**
+     * Callbacks waiting for a permit, in FIFO order
+     */
+    private final ArrayDeque<Runnable> callbacks = new ArrayDeque<>();
+
+    private int limit;
+    private int running;
+
+    /**
+     * Default constructor
+     *
+     * @param limit Number of requests allowed at the same time
+     */
+    public Permits(int limit) {
+        this.limit = Math.max(1, limit);
+    }
+
+    /**
+     * Wait until a permit is free and take it
+     * Keep waiting if interrupted, the interrupt is kept for the caller
+     */
+    public void acquire() {
+        lock.lock();
+        try {
+            while (running >= limit)
+                available.awaitUninterruptibly();
+            running++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Take a permit without blocking
+     * The callback runs on this thread if a permit is free,
+     * otherwise on the thread giving one back, so it should not block
+     *
+     * @param callback Action holding the permit, must give it back with release
+     */
+    public void acquire(Runnable callback) {
+        lock.lock();
+        try {
+            if (running >= limit) {
+                callbacks.add(callback);
+                return;
+            }
+            running++;
+        } finally {
+            lock.unlock();
+        }
+        callback.run();
+    }
+
+    /**
+     * Give back a permit taken by acquire
+     * The permit passes straight to the first waiting callback if any
+     */
+    public void release() {
+        Runnable next;
+        lock.lock();
+        try {
+            next = running <= limit ? callbacks.poll() : null;
+            if (next == null) {
+                running--;
+                available.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (next != null)
+            next.run();
+    }
+
+    /**
+     * Change the number of requests allowed at the same time
+     * Requests running over a lower limit are not stopped, no permit is given until they are back under it
+     * The callbacks allowed by a higher limit are returned instead of run,
+     * so the caller can run them after leaving its own lock
+     *
+     * @param limit Number of requests allowed at the same time
+     * @return Callbacks holding a new permit, to be run by the caller
+     */
+    public List<Runnable> setLimit(int limit) {
+        List<Runnable> granted = new ArrayList<>();
+        lock.lock();
+        try {
+            this.limit = Math.max(1, limit);
+            while (running < this.limit && !callbacks.isEmpty()) {
+                running++;
+                granted.add(callbacks.poll());
+            }
+            if (running < this.limit)
+                available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        return granted;
+    }
+}
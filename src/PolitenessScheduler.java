@@ -0,0 +1,112 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the next visit time of each host
+ */
+public class PolitenessScheduler {
+
+    /**
+     * Number of hosts kept before the passed slots are evicted
+     */
+    private static final int MIN_EVICT_SIZE = 1024;
+
+    /**
+     * Next timestamp each host is allowed to be visited
+     * A host whose slot has passed is the same as a host never visited, so it can be evicted
+     */
+    private ConcurrentHashMap<String, Long> nextVisitTime;
+
+    /**
+     * Number of hosts that triggers the next eviction
+     * Doubled from the hosts left after each eviction, so the scans stay cheap on a long crawl
+     */
+    private AtomicInteger evictSize;
+
+    /**
+     * Adjusts the delay of each host by its responses, null to use a fixed delay
+     */
+    private HostController controller;
+
+    /**
+     * Default constructor
+     */
+    public PolitenessScheduler() {
+        this(null);
+    }
+
+    /**
+     * Constructor with adaptive delay
+     *
+     * @param controller Controller of each host, null to use a fixed delay
+     */
+    public PolitenessScheduler(HostController controller) {
+        this.nextVisitTime = new ConcurrentHashMap<>();
+        this.evictSize = new AtomicInteger(MIN_EVICT_SIZE);
+        this.controller = controller;
+    }
+
+    public HostController getController() {
+        return controller;
+    }
+
+    /**
+     * Reserve the next visit slot of a host
+     * The caller should sleep for the returned time before sending the request
+     * No lock is held while sleeping, so other hosts can be visited meanwhile
+     *
+     * @param host       Host of the link should be visited
+     * @param visitDelay Delay between two requests to the same host, replaced by the adaptive one if any
+     * @return Milliseconds to wait before visiting
+     */
+    public long reserve(String host, long visitDelay) {
+        if (controller != null)
+            visitDelay = controller.getDelay(host);
+        if (visitDelay <= 0)
+            return 0;
+
+        // claim the slot, the entry of the host is locked only while updating it
+        long delay = visitDelay;
+        long[] waitTime = new long[1];
+        nextVisitTime.compute(host, (k, slot) -> {
+            long now = System.currentTimeMillis();
+            long visitTime = slot == null ? now : Math.max(now, slot);
+            waitTime[0] = visitTime - now;
+            return visitTime + delay;
+        });
+
+        if (nextVisitTime.size() > evictSize.get())
+            evictPassed();
+        return waitTime[0];
+    }
+
+    /**
+     * Remove the hosts whose slots have passed
+     * An entry updated meanwhile is kept, it's only removed if it still holds the passed slot
+     */
+    private void evictPassed() {
+        int size = evictSize.get();
+
+        // only one thread scans at a time
+        if (!evictSize.compareAndSet(size, Integer.MAX_VALUE))
+            return;
+
+        long now = System.currentTimeMillis();
+        nextVisitTime.values().removeIf(slot -> slot <= now);
+        evictSize.set(Math.max(MIN_EVICT_SIZE, nextVisitTime.size() * 2));
+    }
+
+    /**
+     * Return how long a host has to wait until it is ready
+     *
+     * @param host Host of the link
+     * @return Milliseconds to wait, 0 if the host is ready
+     */
+    public long getWaitTime(String host) {
+        Long slot = nextVisitTime.get(host);
+        if (slot == null)
+            return 0;
+
+        return Math.max(0, slot - System.currentTimeMillis());
+    }
+}
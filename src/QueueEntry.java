@@ -0,0 +1,42 @@
+/**
+ * Url in the work queue with its sort key
+ */
+public class QueueEntry implements Comparable<QueueEntry> {
+
+    /**
+     * Key of the url in work queue database
+     */
+    private byte[] key;
+    private WebURL url;
+
+    public QueueEntry(byte[] key, WebURL url) {
+        this.key = key;
+        this.url = url;
+    }
+
+    public byte[] getKey() {
+        return key;
+    }
+
+    public WebURL getUrl() {
+        return url;
+    }
+
+    /**
+     * Compare keys as unsigned bytes, the same order as in database
+     * Smaller entry will be polled first
+     *
+     * @param other Another entry
+     * @return Negative if this entry comes first
+     */
+    @Override
+    public int compareTo(QueueEntry other) {
+        int length = Math.min(key.length, other.key.length);
+        for (int i = 0; i < length; i++) {
+            int result = (key[i] & 0xff) - (other.key[i] & 0xff);
+            if (result != 0)
+                return result;
+        }
+        return key.length - other.key.length;
+    }
+}
@@ -0,0 +1,22 @@
+import java.util.List;
+
+/**
+ * Analyzer receiving the parsed pages in batches
+ */
+public interface ResultConsumer {
+
+    /**
+     * Receive a batch of parsed pages as soon as it's ready
+     * Called on the writer thread, crawler threads keep working meanwhile
+     * Crawler threads only wait when the result queue is full, so a slow consumer slows down the crawl
+     *
+     * @param batch Pages passed from crawler threads, owned by the consumer afterwards
+     */
+    void onBatch(List<WebPage> batch);
+
+    /**
+     * Called once after the last batch when the crawler shuts down
+     */
+    default void onComplete() {
+    }
+}
@@ -0,0 +1,97 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Passes parsed pages from crawler threads to the writer thread
+ */
+public class ResultPipeline {
+
+    /**
+     * How long the writer waits for more pages before handling a partial batch
+     */
+    private static final long LINGER_TIME = 1000;
+
+    /**
+     * Pages from all the crawler threads to the writer thread
+     * Crawler threads block when it's full
+     */
+    private BlockingQueue<WebPage> queue;
+
+    /**
+     * Action for each batch of pages, running on the writer thread
+     */
+    private Consumer<List<WebPage>> handler;
+
+    private Thread writer;
+    private int batchSize;
+    private volatile boolean running;
+
+    /**
+     * Default constructor
+     *
+     * @param config  The config of crawler defined by user
+     * @param handler Action for each batch of pages
+     */
+    public ResultPipeline(CrawlerConfig config, Consumer<List<WebPage>> handler) {
+        this.queue = new ArrayBlockingQueue<>(config.getSizeOfResultQueue());
+        this.handler = handler;
+        this.batchSize = Math.max(1, config.getNumberOfProcess());
+        this.running = false;
+    }
+
+    /**
+     * Start the writer thread
+     */
+    public void start() {
+        running = true;
+        writer = new Thread(() -> {
+            List<WebPage> batch = new ArrayList<>(batchSize);
+            try {
+                while (running || !queue.isEmpty() || !batch.isEmpty()) {
+                    WebPage page = queue.poll(LINGER_TIME, TimeUnit.MILLISECONDS);
+                    if (page != null) {
+                        batch.add(page);
+                        queue.drainTo(batch, batchSize - batch.size());
+                    }
+
+                    // hand over a full batch, or a partial one when no more page comes
+                    if (batch.size() >= batchSize || (page == null && !batch.isEmpty())) {
+                        handler.accept(batch);
+                        batch = new ArrayList<>(batchSize);
+                    }
+                }
+            } catch (InterruptedException e) {
+                System.out.println("Writer thread failed to wait!");
+            }
+        }, "Writer");
+        writer.start();
+    }
+
+    /**
+     * Pass a parsed page to the writer thread
+     * Block while the queue is full
+     *
+     * @param page Parsed page
+     * @throws InterruptedException On interrupted while waiting
+     */
+    public void publish(WebPage page) throws InterruptedException {
+        queue.put(page);
+    }
+
+    /**
+     * Handle all the remaining pages and stop the writer thread
+     */
+    public void close() {
+        running = false;
+        try {
+            if (writer != null)
+                writer.join();
+        } catch (InterruptedException e) {
+            System.out.println("Failed to wait for writer thread!");
+        }
+    }
+}
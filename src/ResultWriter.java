@@ -0,0 +1,148 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes parsed pages to the result file as JSON lines
+ */
+public class ResultWriter {
+
+    /**
+     * When the results are forced to disk
+     */
+    public enum FsyncPolicy {
+        /**
+         * Leave it to the operating system
+         */
+        NEVER,
+        /**
+         * Force after each flush
+         */
+        ON_FLUSH,
+        /**
+         * Force after each page
+         */
+        ALWAYS
+    }
+
+    private FileChannel channel;
+    private Writer out;
+    private FsyncPolicy fsyncPolicy;
+
+    /**
+     * Default constructor
+     * Keep the result file open for appending
+     *
+     * @param config The config of crawler defined by user
+     * @throws IOException On failed to open the file
+     */
+    public ResultWriter(CrawlerConfig config) throws IOException {
+        this.channel = FileChannel.open(Paths.get(config.getFilePath()), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.out = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8), config.getWriteBufferSize());
+        this.fsyncPolicy = config.getFsyncPolicy();
+    }
+
+    /**
+     * Write a page as one JSON line
+     *
+     * @param page Parsed page
+     * @throws IOException On failed to write
+     */
+    public synchronized void write(WebPage page) throws IOException {
+        out.write("{\"hash\":");
+        out.write(String.valueOf(page.getHash()));
+        if (page.getDuplicateOf() >= 0) {
+            out.write(",\"duplicateOf\":");
+            out.write(String.valueOf(page.getDuplicateOf()));
+        }
+        out.write(",\"url\":");
+        writeString(page.getUrl());
+        out.write(",\"title\":");
+        writeString(page.getTitle());
+        out.write(",\"description\":");
+        writeString(page.getDescription());
+        out.write(",\"text\":");
+        writeString(page.getText());
+        out.write("}\n");
+
+        if (fsyncPolicy == FsyncPolicy.ALWAYS)
+            flush();
+    }
+
+    /**
+     * Write buffered results to the file
+     *
+     * @throws IOException On failed to write
+     */
+    public synchronized void flush() throws IOException {
+        out.flush();
+        if (fsyncPolicy != FsyncPolicy.NEVER)
+            channel.force(false);
+    }
+
+    /**
+     * Flush and close the file
+     */
+    public synchronized void close() {
+        try {
+            flush();
+            out.close();
+        } catch (IOException e) {
+            System.out.println("Failed to close result file!");
+        }
+    }
+
+    /**
+     * Write a quoted JSON string
+     * Only quotation marks, backslashes and control characters are escaped
+     *
+     * @param string String to write
+     * @throws IOException On failed to write
+     */
+    private void writeString(String string) throws IOException {
+        if (string == null) {
+            out.write("null");
+            return;
+        }
+
+        out.write('"');
+        int start = 0;
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            if (c != '"' && c != '\\' && c >= 0x20)
+                continue;
+
+            // write the plain part in one call
+            out.write(string, start, i - start);
+            start = i + 1;
+
+            switch (c) {
+                case '"':
+                    out.write("\\\"");
+                    break;
+                case '\\':
+                    out.write("\\\\");
+                    break;
+                case '\n':
+                    out.write("\\n");
+                    break;
+                case '\r':
+                    out.write("\\r");
+                    break;
+                case '\t':
+                    out.write("\\t");
+                    break;
+                default:
+                    out.write(String.format("\\u%04x", (int) c));
+            }
+        }
+        out.write(string, start, string.length() - start);
+        out.write('"');
+    }
+}
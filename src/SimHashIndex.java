@@ -0,0 +1,237 @@
+import com.sleepycat.je.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds pages whose text is near duplicate to a page met before
+ */
+public class SimHashIndex {
+
+    /**
+     * What to do with a page similar to a page met before
+     */
+    public enum DuplicatePolicy {
+        /**
+         * Emit it without checking
+         */
+        KEEP,
+        /**
+         * Emit it with the id of the page it duplicates
+         */
+        TAG,
+        /**
+         * Do not emit it
+         */
+        DROP
+    }
+
+    /**
+     * Maximum number of different bits between near duplicates
+     */
+    private int maxDistance;
+
+    /**
+     * Number of bits in each band
+     * Two hashes within maxDistance bits share at least one band, since there are maxDistance + 1 bands
+     */
+    private int bandBits;
+
+    /**
+     * Band value to the positions of the hashes with that band, one map for each band
+     */
+    private List<Map<Long, int[]>> bands;
+
+    /**
+     * All the hashes and their page ids
+     */
+    private long[] hashes;
+    private long[] ids;
+    private int size;
+
+    /**
+     * Database to keep the hashes for resumed crawls, null if not persisted
+     */
+    private Database hashdb;
+
+    /**
+     * Default constructor
+     * Load the hashes from last run if the index is persisted
+     *
+     * @param env         The shared environment, null if not persisted
+     * @param dbConfig    The database config
+     * @param maxDistance Maximum number of different bits between near duplicates
+     */
+    public SimHashIndex(Environment env, DatabaseConfig dbConfig, int maxDistance) {
+        this.maxDistance = Math.max(0, Math.min(63, maxDistance));
+        this.bandBits = 64 / (this.maxDistance + 1);
+        this.bands = new ArrayList<>(this.maxDistance + 1);
+        for (int i = 0; i <= this.maxDistance; i++)
+            bands.add(new HashMap<>());
+        this.hashes = new long[1024];
+        this.ids = new long[1024];
+
+        if (env != null) {
+            this.hashdb = env.openDatabase(null, "simHashDB", dbConfig);
+            load();
+        }
+    }
+
+    /**
+     * Return the id of a page near duplicate to the given hash
+     * Add the hash to the index if there is none
+     *
+     * @param hash SimHash of the page text
+     * @param id   Id of the page
+     * @return Id of the page met before, or -1 if the page is new
+     */
+    public synchronized long findOrAdd(long hash, long id) {
+        for (int band = 0; band <= maxDistance; band++) {
+            int[] positions = bands.get(band).get(getBand(hash, band));
+            if (positions == null)
+                continue;
+
+            for (int i = 1; i <= positions[0]; i++) {
+                if (Long.bitCount(hashes[positions[i]] ^ hash) <= maxDistance)
+                    return ids[positions[i]];
+            }
+        }
+
+        add(hash, id);
+        if (hashdb != null)
+            hashdb.put(null, new DatabaseEntry(longToByte(hash)), new DatabaseEntry(longToByte(id)));
+        return -1;
+    }
+
+    /**
+     * Add a hash to every band
+     *
+     * @param hash SimHash of the page text
+     * @param id   Id of the page
+     */
+    private void add(long hash, long id) {
+        if (size == hashes.length) {
+            hashes = Arrays.copyOf(hashes, size * 2);
+            ids = Arrays.copyOf(ids, size * 2);
+        }
+        hashes[size] = hash;
+        ids[size] = id;
+
+        // the first element is the number of positions
+        for (int band = 0; band <= maxDistance; band++) {
+            Map<Long, int[]> map = bands.get(band);
+            long key = getBand(hash, band);
+            int[] positions = map.get(key);
+            if (positions == null) {
+                positions = new int[2];
+            } else if (positions[0] + 1 == positions.length) {
+                positions = Arrays.copyOf(positions, positions.length * 2);
+            }
+            positions[++positions[0]] = size;
+            map.put(key, positions);
+        }
+        size++;
+    }
+
+    /**
+     * Return the bits of a band, the last band takes the remaining bits
+     *
+     * @param hash SimHash of the page text
+     * @param band Index of the band
+     * @return Bits of the band
+     */
+    private long getBand(long hash, int band) {
+        int bits = band == maxDistance ? 64 - band * bandBits : bandBits;
+        long value = hash >>> (band * bandBits);
+        return bits == 64 ? value : value & ((1L << bits) - 1);
+    }
+
+    /**
+     * Read all the hashes from database
+     */
+    private void load() {
+        DatabaseEntry key = new DatabaseEntry();
+        DatabaseEntry value = new DatabaseEntry();
+
+        try (Cursor cursor = hashdb.openCursor(null, null)) {
+            OperationStatus result = cursor.getFirst(key, value, null);
+            while (result == OperationStatus.SUCCESS) {
+                add(ByteBuffer.wrap(key.getData(), key.getOffset(), 8).getLong(),
+                        ByteBuffer.wrap(value.getData(), value.getOffset(), 8).getLong());
+                result = cursor.getNext(key, value, null);
+            }
+        }
+    }
+
+    /**
+     * Close the database
+     * The environment is closed by its owner
+     */
+    public void closeDB() {
+        if (hashdb != null)
+            hashdb.close();
+    }
+
+    /**
+     * Return the 64-bit SimHash of a text
+     * Each word votes for the bits of its hash, similar texts differ in only a few bits
+     *
+     * @param text Plain text of the page
+     * @return SimHash of the text
+     */
+    public static long simHash(String text) {
+        int[] votes = new int[64];
+        int start = -1;
+
+        for (int i = 0; i <= text.length(); i++) {
+            boolean letter = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (letter && start < 0) {
+                start = i;
+            } else if (!letter && start >= 0) {
+                long hash = hashWord(text, start, i);
+                for (int bit = 0; bit < 64; bit++)
+                    votes[bit] += (int) ((hash >>> bit) & 1) * 2 - 1;
+                start = -1;
+            }
+        }
+
+        long simHash = 0;
+        for (int bit = 0; bit < 64; bit++) {
+            if (votes[bit] > 0)
+                simHash |= 1L << bit;
+        }
+        return simHash;
+    }
+
+    /**
+     * Return the 64-bit hash of a word in lower case
+     * Use FNV-1a over the characters with a final mix
+     *
+     * @param text  Plain text of the page
+     * @param start Start of the word
+     * @param end   End of the word
+     * @return Hash of the word
+     */
+    private static long hashWord(String text, int start, int end) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = start; i < end; i++) {
+            hash ^= Character.toLowerCase(text.charAt(i));
+            hash *= 0x100000001b3L;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static byte[] longToByte(long in) {
+        return ByteBuffer.allocate(8).putLong(in).array();
+    }
+}
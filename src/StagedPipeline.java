@@ -0,0 +1,93 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread pools to parse pages and admit links apart from fetching
+ */
+public class StagedPipeline {
+
+    /**
+     * Threads to parse pages and extract text, sized for the cores
+     */
+    private ThreadPoolExecutor parseStage;
+
+    /**
+     * Threads to schedule the outgoing links to the frontier
+     */
+    private ThreadPoolExecutor admissionStage;
+
+    /**
+     * Default constructor
+     * Each stage has its own threads and a bounded queue
+     * A full queue blocks the stage before it, so fetching never runs far ahead of parsing
+     *
+     * @param config The config of crawler defined by user
+     */
+    public StagedPipeline(CrawlerConfig config) {
+        this.parseStage = newStage("Parser", config.getParseThreads(), config.getSizeOfStageQueue());
+        this.admissionStage = newStage("Admission", config.getAdmissionThreads(), config.getSizeOfStageQueue());
+    }
+
+    /**
+     * Run the task on the parse stage, wait while its queue is full
+     *
+     * @param task Parse work of a page
+     */
+    public void parse(Runnable task) {
+        parseStage.execute(task);
+    }
+
+    /**
+     * Run the task on the admission stage, wait while its queue is full
+     *
+     * @param task Admission work of a page
+     */
+    public void admit(Runnable task) {
+        admissionStage.execute(task);
+    }
+
+    /**
+     * Finish the queued tasks and stop all the stages in order
+     */
+    public void shutdown() {
+        try {
+            parseStage.shutdown();
+            parseStage.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            admissionStage.shutdown();
+            admissionStage.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            System.out.println("Failed to wait for pipeline stages!");
+        }
+    }
+
+    /**
+     * Create a fixed size stage whose callers block while its queue is full
+     *
+     * @param name     Name of the stage threads
+     * @param threads  Number of threads
+     * @param capacity Size of the queue
+     * @return The stage
+     */
+    private static ThreadPoolExecutor newStage(String name, int threads, int capacity) {
+        AtomicInteger count = new AtomicInteger(0);
+        RejectedExecutionHandler block = (task, executor) -> {
+            if (executor.isShutdown())
+                throw new RejectedExecutionException("Stage " + name + " is shut down");
+            try {
+                executor.getQueue().put(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException(e);
+            }
+        };
+
+        threads = Math.max(1, threads);
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, capacity)),
+                task -> new Thread(task, name + " " + count.getAndIncrement()), block);
+    }
+}
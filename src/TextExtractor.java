@@ -0,0 +1,117 @@
+import org.jsoup.helper.StringUtil;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.select.Elements;
+import org.jsoup.select.NodeVisitor;
+
+/**
+ * Collects text, title and links of a page in one traversal
+ */
+public class TextExtractor implements NodeVisitor {
+
+    /**
+     * Character replaced the ones not valid in utf-8
+     */
+    private static final char ILLEGAL = 65533;
+
+    private StringBuilder text;
+    private Elements links;
+    private String title;
+
+    /**
+     * Whether some text contains characters not valid in utf-8
+     */
+    private boolean illegal;
+
+    /**
+     * Whether a space should be added before the next character
+     */
+    private boolean pendingSpace;
+
+    /**
+     * Default constructor
+     */
+    public TextExtractor() {
+        this.text = new StringBuilder();
+        this.links = new Elements();
+        this.title = "";
+        this.illegal = false;
+        this.pendingSpace = false;
+    }
+
+    /**
+     * Return plain text with whitespace and quotation marks collapsed into single spaces
+     *
+     * @return Plain text of the page
+     */
+    public String getText() {
+        return text.toString();
+    }
+
+    /**
+     * Return all the anchors with href attribute
+     *
+     * @return Outgoing links
+     */
+    public Elements getLinks() {
+        return links;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public boolean hasIllegalChar() {
+        return illegal;
+    }
+
+    @Override
+    public void head(Node node, int depth) {
+        if (node instanceof TextNode) {
+            appendText(((TextNode) node).getWholeText());
+        } else if (node instanceof Element) {
+            Element element = (Element) node;
+            if (element.tagName().equals("a") && element.hasAttr("href")) {
+                links.add(element);
+            } else if (element.tagName().equals("title") && title.isEmpty()) {
+                title = StringUtil.normaliseWhitespace(element.text()).trim();
+            }
+        }
+    }
+
+    @Override
+    public void tail(Node node, int depth) {
+    }
+
+    /**
+     * Append the text of a node
+     * Text of different nodes are separated by a space
+     *
+     * @param nodeText Text of a node
+     */
+    private void appendText(String nodeText) {
+        pendingSpace = text.length() > 0;
+
+        for (int i = 0; i < nodeText.length(); i++) {
+            char c = nodeText.charAt(i);
+            if (c == ILLEGAL)
+                illegal = true;
+
+            // remove all the line separator or quotation mark
+            if (isSeparator(c)) {
+                pendingSpace = text.length() > 0;
+            } else {
+                if (pendingSpace) {
+                    text.append(' ');
+                    pendingSpace = false;
+                }
+                text.append(c);
+            }
+        }
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == 11 || c == 160 || c == '"';
+    }
+}
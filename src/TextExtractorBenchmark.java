@@ -0,0 +1,116 @@
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.select.Elements;
+import org.jsoup.select.NodeTraversor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compare the old text extraction, which selected every element and ran a regex over the text,
+ * against the single traversal of TextExtractor on the same fixed pages
+ */
+public class TextExtractorBenchmark {
+
+    private static final int PAGES = 200;
+    private static final int ROUNDS = 20;
+
+    public static void main(String[] args) {
+        List<Document> documents = buildDocuments();
+
+        // warm up both paths before measuring
+        for (int i = 0; i < 3; i++) {
+            runOld(documents);
+            runNew(documents);
+        }
+
+        long start = System.nanoTime();
+        long oldChars = 0;
+        for (int i = 0; i < ROUNDS; i++)
+            oldChars += runOld(documents);
+        long oldTime = (System.nanoTime() - start) / 1000000;
+
+        start = System.nanoTime();
+        long newChars = 0;
+        for (int i = 0; i < ROUNDS; i++)
+            newChars += runNew(documents);
+        long newTime = (System.nanoTime() - start) / 1000000;
+
+        System.out.println("pages=" + PAGES + " rounds=" + ROUNDS);
+        System.out.println("old select(\"*\") time=" + oldTime + "ms chars=" + oldChars);
+        System.out.println("new TextExtractor time=" + newTime + "ms chars=" + newChars);
+    }
+
+    /**
+     * Build fixed pages with nested blocks, links and quoted text
+     *
+     * @return Parsed pages
+     */
+    private static List<Document> buildDocuments() {
+        Random random = new Random(42);
+        String[] words = {"basketball", "score", "\"game\"", "team", "player", "season", "news", "coach"};
+
+        List<Document> documents = new ArrayList<>(PAGES);
+        for (int i = 0; i < PAGES; i++) {
+            StringBuilder html = new StringBuilder("<html><head><title>Page ").append(i).append("</title></head><body>");
+            for (int j = 0; j < 100; j++) {
+                html.append("<div class=\"row\"><p>");
+                for (int k = 0; k < 20; k++)
+                    html.append(words[random.nextInt(words.length)]).append(k % 7 == 0 ? "\n  " : " ");
+                html.append("<a href=\"/page/").append(random.nextInt(10000)).append("\">more</a></p>");
+                html.append("<ul><li><span>").append(words[random.nextInt(words.length)]).append("</span></li></ul></div>");
+            }
+            html.append("</body></html>");
+            documents.add(Jsoup.parse(html.toString(), "http://www.example.com/"));
+        }
+        return documents;
+    }
+
+    /**
+     * Extract the text and links as WebCrawler.parse did before TextExtractor
+     *
+     * @param documents Parsed pages
+     * @return Number of characters extracted
+     */
+    private static long runOld(List<Document> documents) {
+        long chars = 0;
+        char illegal = 65533;
+        for (Document document : documents) {
+            Elements tags = document.select("*");
+            StringBuilder stringBuilder = new StringBuilder();
+            for (Element tag : tags) {
+                for (TextNode tn : tag.textNodes()) {
+                    String tagText = tn.text().trim();
+                    if (tagText.contains(String.valueOf(illegal)))
+                        break;
+
+                    if (tagText.length() > 0) {
+                        stringBuilder.append(tagText).append(' ');
+                    }
+                }
+            }
+            String plaintext = stringBuilder.toString().replaceAll("\\s+|\"+", " ");
+            chars += plaintext.length() + document.title().length() + document.select("a[href]").size();
+        }
+        return chars;
+    }
+
+    /**
+     * Extract the text, title and links in one traversal
+     *
+     * @param documents Parsed pages
+     * @return Number of characters extracted
+     */
+    private static long runNew(List<Document> documents) {
+        long chars = 0;
+        for (Document document : documents) {
+            TextExtractor extractor = new TextExtractor();
+            new NodeTraversor(extractor).traverse(document);
+            chars += extractor.getText().length() + extractor.getTitle().length() + extractor.getLinks().size();
+        }
+        return chars;
+    }
+}
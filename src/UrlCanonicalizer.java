@@ -0,0 +1,280 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rewrites urls to their canonical form
+ */
+public class UrlCanonicalizer {
+
+    /**
+     * How urls of a host are rewritten
+     */
+    public static class Rule {
+
+        /**
+         * Whether query parameters are sorted, so their order does not matter
+         */
+        private boolean sortQuery = true;
+
+        /**
+         * Names of query and path parameters to remove in lower case, e.g. session ids
+         * Generic names like "sid" often carry content ids, add them per host with addDropParam
+         */
+        private Set<String> dropParams = new HashSet<>(Arrays.asList(
+                "jsessionid", "phpsessid", "aspsessionid", "sessionid", "cfid", "cftoken"));
+
+        public boolean isSortQuery() {
+            return sortQuery;
+        }
+
+        public Set<String> getDropParams() {
+            return dropParams;
+        }
+
+        public void setSortQuery(boolean sortQuery) {
+            this.sortQuery = sortQuery;
+        }
+
+        public void addDropParam(String name) {
+            this.dropParams.add(name.toLowerCase());
+        }
+
+        public void setDropParams(Set<String> dropParams) {
+            this.dropParams = new HashSet<>();
+            for (String name : dropParams)
+                addDropParam(name);
+        }
+    }
+
+    /**
+     * Rule for hosts without their own rule
+     */
+    private Rule defaultRule = new Rule();
+
+    /**
+     * Rules by host in lower case, also applied to the sub domains
+     */
+    private Map<String, Rule> rules = new HashMap<>();
+
+    /**
+     * Return the canonical form of a url
+     * Scheme and host are lower cased, default port and fragment are removed,
+     * dropped parameters are removed and query parameters are sorted by the rule of the host
+     * Return null if it's not a http or https url
+     *
+     * @param url Url for website in String
+     * @return Canonical url, or null if it can't be crawled
+     */
+    public String canonicalize(String url) {
+        if (url == null)
+            return null;
+        url = url.trim();
+
+        int schemeEnd = url.indexOf("://");
+        if (schemeEnd <= 0)
+            return null;
+        String scheme = url.substring(0, schemeEnd).toLowerCase();
+        if (!scheme.equals("http") && !scheme.equals("https"))
+            return null;
+
+        // everything after fragment is ignored
+        int end = url.indexOf('#');
+        if (end < 0)
+            end = url.length();
+
+        // find authority
+        int hostStart = schemeEnd + 3;
+        int hostEnd = hostStart;
+        while (hostEnd < end) {
+            char c = url.charAt(hostEnd);
+            if (c == '/' || c == '?')
+                break;
+            hostEnd++;
+        }
+
+        // split user info, host and port
+        int at = url.lastIndexOf('@', hostEnd - 1);
+        int userStart = hostStart;
+        if (at >= hostStart)
+            hostStart = at + 1;
+        int portStart = url.lastIndexOf(':', hostEnd - 1);
+        if (portStart < hostStart || portStart < url.lastIndexOf(']', hostEnd - 1))
+            portStart = hostEnd;
+
+        String host = url.substring(hostStart, portStart).toLowerCase();
+        if (host.endsWith("."))
+            host = host.substring(0, host.length() - 1);
+        if (host.isEmpty())
+            return null;
+
+        String port = portStart < hostEnd ? url.substring(portStart + 1, hostEnd) : "";
+        if ((scheme.equals("http") && port.equals("80")) || (scheme.equals("https") && port.equals("443")))
+            port = "";
+
+        int queryStart = url.indexOf('?', hostEnd);
+        if (queryStart < 0 || queryStart > end)
+            queryStart = end;
+
+        Rule rule = getRule(host);
+
+        StringBuilder builder = new StringBuilder(end);
+        builder.append(scheme).append("://");
+        builder.append(url, userStart, hostStart);
+        builder.append(host);
+        if (!port.isEmpty())
+            builder.append(':').append(port);
+
+        // path
+        if (hostEnd == queryStart)
+            builder.append('/');
+        else
+            appendPath(builder, url.substring(hostEnd, queryStart), rule);
+
+        // query
+        if (queryStart + 1 < end)
+            appendQuery(builder, url.substring(queryStart + 1, end), rule);
+
+        return encodeSpaces(builder);
+    }
+
+    /**
+     * Append the path without dot segments and dropped path parameters
+     *
+     * @param builder Builder of the url
+     * @param path    Path of the url starting with '/'
+     * @param rule    Rule of the host
+     */
+    private void appendPath(StringBuilder builder, String path, Rule rule) {
+        // path parameters, e.g. /index.jsp;jsessionid=...
+        int semicolon = path.indexOf(';');
+        while (semicolon >= 0) {
+            int equal = path.indexOf('=', semicolon);
+            int next = path.indexOf('/', semicolon);
+            if (next < 0)
+                next = path.length();
+            int paramEnd = path.indexOf(';', semicolon + 1);
+            if (paramEnd < 0 || paramEnd > next)
+                paramEnd = next;
+
+            if (equal > semicolon && equal < paramEnd
+                    && rule.dropParams.contains(path.substring(semicolon + 1, equal).toLowerCase())) {
+                path = path.substring(0, semicolon) + path.substring(paramEnd);
+                semicolon = path.indexOf(';', semicolon);
+            } else {
+                semicolon = path.indexOf(';', paramEnd);
+            }
+        }
+
+        // most paths have no dot segment
+        if (!path.contains("/.")) {
+            builder.append(path);
+            return;
+        }
+
+        List<String> segments = new ArrayList<>();
+        for (String segment : path.substring(1).split("/", -1)) {
+            if (segment.equals(".")) {
+                continue;
+            } else if (segment.equals("..")) {
+                if (!segments.isEmpty())
+                    segments.remove(segments.size() - 1);
+                continue;
+            }
+            segments.add(segment);
+        }
+
+        // keep the trailing slash of a directory
+        if (path.endsWith("/.") || path.endsWith("/.."))
+            segments.add("");
+
+        builder.append('/').append(String.join("/", segments));
+    }
+
+    /**
+     * Append the query without empty and dropped parameters
+     *
+     * @param builder Builder of the url
+     * @param query   Query of the url without '?'
+     * @param rule    Rule of the host
+     */
+    private void appendQuery(StringBuilder builder, String query, Rule rule) {
+        List<String> params = new ArrayList<>();
+        for (String param : query.split("&")) {
+            if (param.isEmpty())
+                continue;
+
+            int equal = param.indexOf('=');
+            String name = equal < 0 ? param : param.substring(0, equal);
+            if (!rule.dropParams.contains(name.toLowerCase()))
+                params.add(param);
+        }
+
+        if (params.isEmpty())
+            return;
+        if (rule.sortQuery)
+            Collections.sort(params);
+
+        builder.append('?').append(String.join("&", params));
+    }
+
+    /**
+     * Replace spaces with %20
+     *
+     * @param builder Builder of the url
+     * @return The url
+     */
+    private static String encodeSpaces(StringBuilder builder) {
+        for (int i = builder.length() - 1; i >= 0; i--) {
+            if (builder.charAt(i) == ' ')
+                builder.replace(i, i + 1, "%20");
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Return the rule of a host, or of its closest parent domain
+     *
+     * @param host Host in lower case
+     * @return Rule of the host
+     */
+    public Rule getRule(String host) {
+        if (rules.isEmpty())
+            return defaultRule;
+
+        String domain = host;
+        while (true) {
+            Rule rule = rules.get(domain);
+            if (rule != null)
+                return rule;
+
+            int dot = domain.indexOf('.');
+            if (dot < 0)
+                return defaultRule;
+            domain = domain.substring(dot + 1);
+        }
+    }
+
+    public Rule getDefaultRule() {
+        return defaultRule;
+    }
+
+    public void setDefaultRule(Rule defaultRule) {
+        this.defaultRule = defaultRule;
+    }
+
+    /**
+     * Set the rule of a host and its sub domains
+     *
+     * @param host Host of the rule
+     * @param rule Rule of the host
+     */
+    public void setRule(String host, Rule rule) {
+        rules.put(host.toLowerCase(), rule);
+    }
+}
@@ -1,112 +1,294 @@
 import com.sleepycat.je.*;
 
-import java.io.File;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Created by Lanslot on 2017/4/25.
  */
 public class UrlDB {
 
+    /**
+     * Url fingerprint to its id and host hash
+     * Fixed size keys keep the B-tree nodes small
+     */
     private Database urldb;
-    private Environment env;
-    private final Object mutex = new Object();
+
+    /**
+     * Url id to the full url, null if full urls are not kept
+     */
+    private Database namedb;
+
+    /**
+     * Database holding the id sequence
+     */
+    private Database sequencedb;
 
     /**
      * The unique id for each url
-     * This will avoid redundancy
+     * Stored in database, so ids never repeat across runs
      */
-    private int lastUrlID;
+    private Sequence lastUrlID;
 
     /**
      * Default constructor
      * Create the url database according to user configs
      *
-     * @param envConfig The environment config
-     * @param dbConfig The database config
-     * @param path The path to working folder
-     */
-    public UrlDB(EnvironmentConfig envConfig, DatabaseConfig dbConfig, String path) {
-        lastUrlID = 0;
-        File file = new File(path);
-        this.env = new Environment(file, envConfig);
+     * @param env         The environment shared with work queues
+     * @param dbConfig    The database config
+     * @param keepFullURL Whether to store the full url of each id
+     */
+    public UrlDB(Environment env, DatabaseConfig dbConfig, boolean keepFullURL) {
         this.urldb = env.openDatabase(null, "urlDB", dbConfig);
+        if (keepFullURL)
+            this.namedb = env.openDatabase(null, "urlNameDB", dbConfig);
+
+        // reserve ids in blocks, unused ones are skipped after restart
+        SequenceConfig sequenceConfig = new SequenceConfig();
+        sequenceConfig.setAllowCreate(true);
+        sequenceConfig.setCacheSize(1000);
+        sequenceConfig.setInitialValue(0);
+        this.sequencedb = env.openDatabase(null, "urlSequence", dbConfig);
+        this.lastUrlID = sequencedb.openSequence(null, new DatabaseEntry(new byte[]{0}), sequenceConfig);
     }
 
     /**
      * Close the database
+     * The environment is closed by its owner
      */
     public void closeDB() {
+        if (lastUrlID != null)
+            lastUrlID.close();
+        if (sequencedb != null)
+            sequencedb.close();
+        if (namedb != null)
+            namedb.close();
         if (urldb != null)
             urldb.close();
-        if (env != null)
-            env.close();
     }
 
     /**
      * Put url and its id into db
+     * Callers make sure the same url is not put concurrently
+     *
+     * @param url Url for website
+     * @param tnx Transaction of the write, null for auto commit
+     */
+    public void put(WebURL url, Transaction tnx) {
+        putWithID(lastUrlID.get(null, 1), url, tnx);
+    }
+
+    /**
+     * Put url with a reserved id into db
+     *
+     * @param id  The id of the url
+     * @param url Url for website
+     * @param tnx Transaction of the write, null for auto commit
+     */
+    private void putWithID(long id, WebURL url, Transaction tnx) {
+        DatabaseEntry key = new DatabaseEntry(longToByte(url.getFingerprint()));
+        if (urldb.putNoOverwrite(tnx, key, new DatabaseEntry(toValue(id, url))) == OperationStatus.SUCCESS)
+            putName(id, url, tnx);
+    }
+
+    /**
+     * Put urls and their ids into db as one batch
+     * Ids are reserved for the whole batch at once, and urls are written in key order with one cursor,
+     * so nearby keys share B-tree nodes, in both resumable and non-resumable mode
+     * In resumable mode the writes also belong to the transaction of the page
+     * Callers make sure the same url is not put concurrently
      *
-     * @param url Url for website in String
-     */
-    public void put(String url) {
-        synchronized (mutex) {
-            try {
-                DatabaseEntry key = new DatabaseEntry(url.getBytes("UTF-8"));
-                DatabaseEntry value = new DatabaseEntry(intToByte(lastUrlID));
-                lastUrlID++;
-
-                urldb.putNoOverwrite(null, key, value);
-            } catch (UnsupportedEncodingException e) {
-                System.out.println("Encoding error!");
+     * @param urls Urls for website
+     * @param tnx  Transaction of the writes, null for auto commit
+     */
+    public void putAll(List<WebURL> urls, Transaction tnx) {
+        if (urls.isEmpty())
+            return;
+
+        long firstID = lastUrlID.get(null, urls.size());
+
+        // keys are compared as unsigned bytes
+        Integer[] order = new Integer[urls.size()];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, (a, b) -> Long.compareUnsigned(urls.get(a).getFingerprint(), urls.get(b).getFingerprint()));
+
+        DatabaseEntry key = new DatabaseEntry();
+        DatabaseEntry value = new DatabaseEntry();
+        try (Cursor cursor = urldb.openCursor(tnx, null)) {
+            for (int index : order) {
+                WebURL url = urls.get(index);
+                key.setData(longToByte(url.getFingerprint()));
+                value.setData(toValue(firstID + index, url));
+                if (cursor.putNoOverwrite(key, value) == OperationStatus.SUCCESS)
+                    putName(firstID + index, url, tnx);
             }
         }
     }
 
+    /**
+     * Put the full url of an id into db if full urls are kept
+     *
+     * @param id  The id of the url
+     * @param url Url for website
+     * @param tnx Transaction of the write, null for auto commit
+     */
+    private void putName(long id, WebURL url, Transaction tnx) {
+        if (namedb == null)
+            return;
+
+        try {
+            namedb.put(tnx, new DatabaseEntry(longToByte(id)), new DatabaseEntry(url.getUrl().getBytes("UTF-8")));
+        } catch (UnsupportedEncodingException e) {
+            System.out.println("Encoding error!");
+        }
+    }
+
+    /**
+     * Return the value of a url, its id and host hash
+     *
+     * @param id  The id of the url
+     * @param url Url for website
+     * @return Value of the url
+     */
+    private static byte[] toValue(long id, WebURL url) {
+        return ByteBuffer.allocate(12)
+                .putLong(id)
+                .putInt(url.getHost().hashCode())
+                .array();
+    }
+
+    /**
+     * Return whether each url is in db
+     * Fingerprints are looked up in key order with one cursor, so nearby keys share B-tree nodes
+     * Only committed urls are seen, callers hold the shard lock so no transaction of the shard is running
+     *
+     * @param fingerprints Fingerprints of the urls
+     * @return True at the position of each url found in db
+     */
+    public boolean[] containsAll(long[] fingerprints) {
+        boolean[] found = new boolean[fingerprints.length];
+
+        // keys are compared as unsigned bytes
+        Integer[] order = new Integer[fingerprints.length];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, (a, b) -> Long.compareUnsigned(fingerprints[a], fingerprints[b]));
+
+        DatabaseEntry key = new DatabaseEntry();
+        DatabaseEntry value = new DatabaseEntry();
+
+        // only the existence is needed
+        value.setPartial(0, 0, true);
+
+        try (Cursor cursor = urldb.openCursor(null, null)) {
+            for (int index : order) {
+                key.setData(longToByte(fingerprints[index]));
+                found[index] = cursor.getSearchKey(key, value, LockMode.READ_COMMITTED) == OperationStatus.SUCCESS;
+            }
+        }
+        return found;
+    }
+
     /**
      * Return the id of an url
      * Return -1 if it's not in db
+     * Only committed urls are seen, a url being admitted is waited for until its page commits
      *
-     * @param url Url for website in String
+     * @param fingerprint Fingerprint of the url
      * @return The id of the url
      */
-    public int getID(String url) {
-        synchronized (mutex) {
-            try {
-                DatabaseEntry key = new DatabaseEntry(url.getBytes("UTF-8"));
-                DatabaseEntry value = new DatabaseEntry();
-
-                OperationStatus result;
-                result = urldb.get(null, key, value, null);
-
-                // return the id if url is found
-                if (result == OperationStatus.SUCCESS && value.getData().length > 0) {
-                    return byteToInt(value.getData());
-                }
-            } catch (UnsupportedEncodingException e) {
-                System.out.println("Encoding error!");
+    public long getID(long fingerprint) {
+        DatabaseEntry key = new DatabaseEntry(longToByte(fingerprint));
+        DatabaseEntry value = new DatabaseEntry();
+
+        // only the id is needed
+        value.setPartial(0, 8, true);
+
+        OperationStatus result;
+        result = urldb.get(null, key, value, LockMode.READ_COMMITTED);
+
+        // return the id if url is found
+        if (result == OperationStatus.SUCCESS && value.getSize() == 8) {
+            return byteToLong(value.getData());
+        }
+        return -1;
+    }
+
+    public long getID(String url) {
+        return getID(UrlFingerprintSet.fingerprint(url));
+    }
+
+    /**
+     * Return the full url of an id
+     * Return null if it's not in db or full urls are not kept
+     *
+     * @param id The id of the url
+     * @return Url for website in String
+     */
+    public String getURL(long id) {
+        if (namedb == null)
+            return null;
+
+        try {
+            DatabaseEntry value = new DatabaseEntry();
+            if (namedb.get(null, new DatabaseEntry(longToByte(id)), value, LockMode.READ_COMMITTED) == OperationStatus.SUCCESS)
+                return new String(value.getData(), value.getOffset(), value.getSize(), "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            System.out.println("Encoding error!");
+        }
+        return null;
+    }
+
+    /**
+     * Pass the fingerprint and host hash of every url in db to the visitor
+     * Used to rebuild in memory structures when the crawler resumes
+     *
+     * @param visitor Action for each url
+     */
+    public void forEachFingerprint(FingerprintVisitor visitor) {
+        DatabaseEntry key = new DatabaseEntry();
+        DatabaseEntry value = new DatabaseEntry();
+
+        // only the host hash is needed
+        value.setPartial(8, 4, true);
+
+        try (Cursor cursor = urldb.openCursor(null, null)) {
+            OperationStatus result = cursor.getFirst(key, value, null);
+            while (result == OperationStatus.SUCCESS) {
+                visitor.visit(ByteBuffer.wrap(key.getData(), key.getOffset(), 8).getLong(),
+                        ByteBuffer.wrap(value.getData(), value.getOffset(), 4).getInt());
+                result = cursor.getNext(key, value, null);
             }
-            return -1;
         }
     }
 
     /**
-     * Transfer byte array to integer
+     * Action for each url in db
+     */
+    public interface FingerprintVisitor {
+        void visit(long fingerprint, int hostHash);
+    }
+
+    /**
+     * Transfer byte array to long
      *
      * @param bytes Byte array
-     * @return Integer
+     * @return Long
      */
-    public int byteToInt(byte[] bytes) {
-        return ByteBuffer.wrap(bytes).getInt();
+    public long byteToLong(byte[] bytes) {
+        return ByteBuffer.wrap(bytes).getLong();
     }
 
     /**
-     * Transfer integer to byte array
+     * Transfer long to byte array
      *
-     * @param in Integer
+     * @param in Long
      * @return Byte array
      */
-    public byte[] intToByte(int in) {
-        return ByteBuffer.allocate(4).putInt(in).array();
+    public byte[] longToByte(long in) {
+        return ByteBuffer.allocate(8).putLong(in).array();
     }
 }
@@ -0,0 +1,142 @@
+/**
+ * Set of 64-bit url fingerprints within a memory budget
+ */
+public class UrlFingerprintSet {
+
+    /**
+     * Open addressing table of 64-bit url fingerprints
+     * 0 marks an empty slot
+     */
+    private long[] table;
+
+    /**
+     * Number of fingerprints in the table
+     */
+    private int size;
+
+    /**
+     * Maximum number of slots allowed by the memory budget
+     */
+    private int maxSlots;
+
+    /**
+     * Set once the table is full and can not grow any more
+     * Fingerprints are not added after that, so a miss is no longer definitely new
+     */
+    private boolean saturated;
+
+    /**
+     * Default constructor
+     * The table starts small and grows until it reaches the memory budget
+     * A small budget makes a cheap set for the links of one page
+     *
+     * @param memoryBudget Maximum memory of the table in bytes
+     */
+    public UrlFingerprintSet(long memoryBudget) {
+        long slots = Math.max(16, Math.min(1 << 30, memoryBudget / 8));
+        this.maxSlots = Integer.highestOneBit((int) slots);
+        this.table = new long[Math.min(maxSlots, 1 << 16)];
+        this.size = 0;
+        this.saturated = false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isSaturated() {
+        return saturated;
+    }
+
+    /**
+     * Return whether the fingerprint is probably seen
+     * Two different urls share a 64-bit fingerprint with negligible probability
+     *
+     * @param fingerprint Fingerprint of the url
+     * @return True if the fingerprint is in the set
+     */
+    public boolean contains(long fingerprint) {
+        int mask = table.length - 1;
+        int index = (int) fingerprint & mask;
+
+        while (table[index] != 0) {
+            if (table[index] == fingerprint)
+                return true;
+            index = (index + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Add a fingerprint to the set
+     * Return false if the set is saturated and the fingerprint is dropped
+     *
+     * @param fingerprint Fingerprint of the url
+     * @return True if the fingerprint is in the set afterwards
+     */
+    public boolean add(long fingerprint) {
+        // keep load factor under 0.75
+        if ((size + 1) * 4L > table.length * 3L) {
+            if (table.length >= maxSlots) {
+                saturated = true;
+                return contains(fingerprint);
+            }
+            resize(table.length * 2);
+        }
+
+        if (insert(table, fingerprint))
+            size++;
+        return true;
+    }
+
+    /**
+     * Insert a fingerprint into the table
+     *
+     * @return True if it's newly inserted
+     */
+    private static boolean insert(long[] table, long fingerprint) {
+        int mask = table.length - 1;
+        int index = (int) fingerprint & mask;
+
+        while (table[index] != 0) {
+            if (table[index] == fingerprint)
+                return false;
+            index = (index + 1) & mask;
+        }
+        table[index] = fingerprint;
+        return true;
+    }
+
+    private void resize(int length) {
+        long[] newTable = new long[length];
+        for (long fingerprint : table) {
+            if (fingerprint != 0)
+                insert(newTable, fingerprint);
+        }
+        table = newTable;
+    }
+
+    /**
+     * Return the 64-bit fingerprint of a url
+     * Use FNV-1a over the characters with a final mix, never return 0
+     *
+     * @param url Url for website in String
+     * @return Fingerprint of the url
+     */
+    public static long fingerprint(String url) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < url.length(); i++) {
+            hash ^= url.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+
+        // spread the bits so the low bits can be used as table index
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+
+        return hash == 0 ? 1 : hash;
+    }
+}
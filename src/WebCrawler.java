@@ -1,9 +1,10 @@
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
-import org.jsoup.nodes.TextNode;
 import org.jsoup.select.Elements;
+import org.jsoup.select.NodeTraversor;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -17,24 +18,25 @@ public class WebCrawler implements Runnable {
 
     private CrawlerConfig config;
     private Frontier frontier;
-    private HttpResponseClient responseClient;
+    private Fetcher responseClient;
 
     /**
-     * Whether the thread is waiting for save results
+     * Executor to visit urls on virtual threads
+     * Null if urls are visited on this thread
      */
-    private boolean waitingForSave;
+    private FetchExecutor fetchExecutor;
 
     /**
-     * Whether the thread is waiting for frontier to assign url
+     * Pass parsed pages to the writer thread
      */
-    private boolean waitingForURL;
-
-    private boolean waiting;
+    private ResultPipeline results;
 
     /**
-     * Store a list of parsed pages
+     * Stages to parse pages and admit links on their own threads
+     * Null if pages are processed on the fetching thread
      */
-    private List<WebPage> resultPages;
+    private StagedPipeline stages;
+
 
     /**
      * Default constructor
@@ -43,35 +45,44 @@ public class WebCrawler implements Runnable {
      * @param config         The config of crawler defined by user
      * @param frontier       The frontier created by the monitor
      * @param responseClient The precooked http client
+     * @param results        The pipeline to the writer thread
      */
-    public WebCrawler(CrawlerConfig config, Frontier frontier, HttpResponseClient responseClient) {
-        resultPages = new ArrayList<>();
-        this.config = config;
-        this.frontier = frontier;
-        this.responseClient = responseClient;
-        this.waitingForURL = false;
-        this.waitingForSave = false;
-        this.waiting = false;
-    }
-
-    public boolean isWaiting() {
-        return this.waiting;
+    public WebCrawler(CrawlerConfig config, Frontier frontier, Fetcher responseClient, ResultPipeline results) {
+        this(config, frontier, responseClient, results, null);
     }
 
-    public boolean isWaitingForURL() {
-        return waitingForURL;
-    }
-
-    public List<WebPage> getResultPages() {
-        return resultPages;
-    }
-
-    public void setWaitingForSave(boolean waitingForSave) {
-        this.waitingForSave = waitingForSave;
+    /**
+     * Constructor for virtual thread mode
+     * Each url is dispatched to the executor instead of visited on this thread
+     *
+     * @param config         The config of crawler defined by user
+     * @param frontier       The frontier created by the monitor
+     * @param responseClient The precooked http client
+     * @param results        The pipeline to the writer thread
+     * @param fetchExecutor  The executor shared by all crawlers
+     */
+    public WebCrawler(CrawlerConfig config, Frontier frontier, Fetcher responseClient, ResultPipeline results, FetchExecutor fetchExecutor) {
+        this(config, frontier, responseClient, results, fetchExecutor, null);
     }
 
-    public void clearResults() {
-        this.resultPages.clear();
+    /**
+     * Constructor for staged mode
+     * Fetched pages are handed to the parse stage, and their links to the admission stage
+     *
+     * @param config         The config of crawler defined by user
+     * @param frontier       The frontier created by the monitor
+     * @param responseClient The precooked http client
+     * @param results        The pipeline to the writer thread
+     * @param fetchExecutor  The executor shared by all crawlers, null to fetch on this thread
+     * @param stages         The stages shared by all crawlers, null to process on the fetching thread
+     */
+    public WebCrawler(CrawlerConfig config, Frontier frontier, Fetcher responseClient, ResultPipeline results, FetchExecutor fetchExecutor, StagedPipeline stages) {
+        this.stages = stages;
+        this.config = config;
+        this.frontier = frontier;
+        this.responseClient = responseClient;
+        this.results = results;
+        this.fetchExecutor = fetchExecutor;
     }
 
     @Override
@@ -81,31 +92,95 @@ public class WebCrawler implements Runnable {
             // create a sub work list to improve performance
             List<WebURL> workQueue = new ArrayList<>(config.getSizeOfWorkQueue());
 
-            // get work list from frontier
-            this.waitingForURL = true;
-            frontier.getNextURL(config.getSizeOfWorkQueue(), workQueue);
-            this.waitingForURL = false;
-
-            // visit each url
-            for (WebURL curURL : workQueue) {
-                // wait until next round
-                if (waitingForSave || workQueue.isEmpty()) {
-                    this.waiting = true;
-                    try {
-                        Thread.sleep(3000);
-                    } catch (InterruptedException e) {
-                        System.out.println("Worker thread failed to sleep!");
-                    }
-                } else {
-                    this.waiting = false;
-                    if (curURL != null) {
-                        visit(curURL);
-                    }
+            // get work list from frontier, wait if it's empty
+            try {
+                frontier.getNextURL(config.getSizeOfWorkQueue(), workQueue, config.getThreadMonitorDelay());
+            } catch (InterruptedException e) {
+                System.out.println("Worker thread interrupted!");
+                return;
+            }
+
+            // visit each url, the one whose host is ready first
+            // async requests are finished on their own, so a slow host doesn't hold the next round
+            while (!workQueue.isEmpty()) {
+                WebURL curURL = pollReadyURL(workQueue);
+                if (curURL == null) {
+                    frontier.finishURL();
+                    continue;
                 }
-            }   // end of for loop
+                try {
+                    dispatch(curURL);
+                } catch (Exception e) {
+                    System.out.println("Failed to visit: " + curURL.getUrl());
+                }
+            }   // end of visit loop
         }   // end of while loop
     }
 
+    /**
+     * Remove and return the url whose host can be visited soonest
+     *
+     * @param workQueue Sub workQueue for this thread
+     * @return The next url to visit
+     */
+    public WebURL pollReadyURL(List<WebURL> workQueue) {
+        PolitenessScheduler scheduler = responseClient.getScheduler();
+        int index = 0;
+        long minWait = Long.MAX_VALUE;
+
+        for (int i = 0; i < workQueue.size(); i++) {
+            WebURL url = workQueue.get(i);
+            long wait = url == null ? 0 : scheduler.getWaitTime(url.getHost());
+            if (wait < minWait) {
+                minWait = wait;
+                index = i;
+            }
+            if (wait == 0)
+                break;
+        }
+
+        return workQueue.remove(index);
+    }
+
+    /**
+     * Visit the url on this thread, on a virtual thread or with the non-blocking fetcher
+     *
+     * @param url Link should be visited
+     */
+    public void dispatch(WebURL url) {
+        if (fetchExecutor != null) {
+            try {
+                // the executor waits for the politeness delay before taking a global permit
+                fetchExecutor.submit(url, () -> process(url, responseClient.execute(url)));
+            } catch (InterruptedException e) {
+                System.out.println("Worker thread failed to dispatch!");
+                frontier.finishURL();
+                Thread.currentThread().interrupt();
+            }
+        } else if (config.isNonBlockingFetch()) {
+            // process the url even if the request failed, so it's always finished
+            responseClient.getResponseAsync(url, config.getVisitDelay())
+                    .whenComplete((content, e) -> process(url, e == null ? content : null));
+        } else {
+            // the virtual threads and the non-blocking fetcher limit the host on their own
+            HostController controller = responseClient.getScheduler().getController();
+            if (controller == null) {
+                visit(url);
+                return;
+            }
+
+            // hold the adaptive limit of the host only while fetching
+            PageContent content;
+            controller.acquire(url.getHost());
+            try {
+                content = responseClient.getResponse(url, config.getVisitDelay());
+            } finally {
+                controller.release(url.getHost());
+            }
+            process(url, content);
+        }
+    }
+
     /**
      * Process the content of page
      *
@@ -113,111 +188,253 @@ public class WebCrawler implements Runnable {
      */
     public void visit(WebURL url) {
 
-        // get html content
-        String html = responseClient.getResponse(url, config.getVisitDelay());
+        // get the body of the page
+        PageContent content = responseClient.getResponse(url, config.getVisitDelay());
+        process(url, content);
+    }
+
+    /**
+     * Process the body of a visited page
+     * The url is finished in frontier afterwards
+     * In staged mode the page is handed to the parse stage, so the fetching thread can go on
+     *
+     * @param url     Link has been visited
+     * @param content Body of the page, null if failed
+     */
+    public void process(WebURL url, PageContent content) {
+        if (stages == null || content == null) {
+            processPage(url, content);
+            return;
+        }
 
-        if (html != null) {
-            // get outgoing links
-            Elements links = parse(html, url.getUrl());
+        // the url is finished here unless a stage took it
+        boolean handedOff = false;
+        try {
+            // an unchanged page has nothing to parse, its stored links go to admission
+            if (content == Fetcher.NOT_MODIFIED)
+                stages.admit(() -> processPage(url, content));
+            else
+                stages.parse(() -> parseStage(url, content));
+            handedOff = true;
+        } catch (Exception e) {
+            System.out.println("Failed to pass page to parser: " + url.getUrl());
+        } finally {
+            if (!handedOff)
+                frontier.finishURL();
+        }
+    }
 
-            // schedule links if not exceed the depth
-            if (config.getMaxDepth() < 0 || url.getDepth() + 1 < config.getMaxDepth())
-                frontier.scheduleWork(links, (short) (url.getDepth() + 1), config);
+    /**
+     * Parse a page on the parse stage and hand its links to the admission stage
+     *
+     * @param url     Link has been visited
+     * @param content Body of the page
+     */
+    private void parseStage(WebURL url, PageContent content) {
+        // the url is finished here unless the admission stage took it
+        boolean handedOff = false;
+        try {
+            List<String> hrefs = toHrefs(parse(content, url.getUrl()));
+            stages.admit(() -> admissionStage(url, hrefs));
+            handedOff = true;
+        } catch (Exception e) {
+            System.out.println("Failed to parse: " + url.getUrl());
+        } finally {
+            if (!handedOff)
+                frontier.finishURL();
+        }
+    }
 
-            System.out.println("Visited: " + url.getUrl());
+    /**
+     * Schedule the links of a parsed page on the admission stage
+     *
+     * @param url   Link has been visited
+     * @param hrefs Absolute links of the page
+     */
+    private void admissionStage(WebURL url, List<String> hrefs) {
+        try {
+            admitLinks(url, hrefs, true);
+        } finally {
+            frontier.finishURL();
         }
+    }
 
+    /**
+     * Parse the page and schedule its links on this thread
+     * A page not modified since the last fetch is not parsed again, its stored links are scheduled
+     *
+     * @param url     Link has been visited
+     * @param content Body of the page, null if failed
+     */
+    private void processPage(WebURL url, PageContent content) {
+        try {
+            if (content == Fetcher.NOT_MODIFIED)
+                admitLinks(url, getStoredLinks(url), false);
+            else if (content != null)
+                admitLinks(url, toHrefs(parse(content, url.getUrl())), true);
+        } finally {
+            frontier.finishURL();
+        }
+    }
+
+    /**
+     * Schedule the links of a visited page if not exceed the depth
+     * The links of a changed page are kept, in case it's not modified by the next run
+     *
+     * @param url      Link has been visited
+     * @param hrefs    Absolute links of the page
+     * @param modified False if the page is not modified since the last fetch
+     */
+    private void admitLinks(WebURL url, List<String> hrefs, boolean modified) {
+        if (modified && frontier.getFetchMetadata() != null)
+            frontier.getFetchMetadata().putOutlinks(url, hrefs);
+
+        // schedule links if not exceed the depth
+        if (config.getMaxDepth() < 0 || url.getDepth() + 1 < config.getMaxDepth())
+            frontier.scheduleWork(hrefs, (short) (url.getDepth() + 1), config);
+
+        System.out.println((modified ? "Visited: " : "Not modified: ") + url.getUrl());
     }
 
     /**
      * Remove all the html tags and undesired contents from html text
+     * The body is parsed from its bytes, and its buffer goes back to the pool afterwards
      *
-     * @param html Html text from response
-     * @param url  Url of the page
+     * @param content Body of the page
+     * @param url     Url of the page
      * @return Outgoing links
      */
-    public Elements parse(String html, String url) {
+    public Elements parse(PageContent content, String url) {
 
         WebPage page = new WebPage();
 
-        // use Jsoup library to parse text
-        Document document = Jsoup.parse(html, "UTF-8");
-        Elements tags = document.select("*");
-
-        // get plain text
-        StringBuilder stringBuilder = new StringBuilder();
+        // use Jsoup library to decode and parse the bytes
+        // the charset from header is used if any, otherwise the one in meta tag
+        Document document;
+        try {
+            document = Jsoup.parse(content.getInputStream(), content.getCharset(), url);
+        } catch (IOException e) {
+            System.out.println("Failed to parse: " + url);
+            return new Elements();
+        } finally {
+            content.release();
+        }
 
+        // get plain text, title and links in one pass
         // find characters not valid in utf-8 meanwhile
-        char illegal = 65533;
-        for (Element tag : tags) {
-            for (TextNode tn : tag.textNodes()) {
-                String tagText = tn.text().trim();
-                if (tagText.contains(String.valueOf(illegal)))
-                    return document.select("a[href]");
-
-                if (tagText.length() > 0) {
-                    stringBuilder.append(tagText).append(' ');
-                }
-            }
-        }
-        String plaintext = stringBuilder.toString();
+        TextExtractor extractor = new TextExtractor();
+        new NodeTraversor(extractor).traverse(document);
+        if (extractor.hasIllegalChar())
+            return extractor.getLinks();
+
+        String plaintext = extractor.getText();
 
-        // remove all the line separator or quotation mark
-        plaintext = plaintext.replaceAll("\\s+|\"+", " ");
         // get the description from the text
         String description = findDescription(plaintext);
         // get the hashcode from the url
-        int hashCode = frontier.getHash(url);
+        long hashCode = frontier.getHash(url);
 
         // store all the results
         page.setUrl(url);
-        page.setTitle(document.title());
+        page.setTitle(extractor.getTitle());
         page.setDescription(description);
         page.setText(plaintext);
         page.setHash(hashCode);
 
-        // add it to the result list
-        if (page.getTitle().length() > 0 && page.getText().length() > 0)
-            resultPages.add(page);
+        // skip pages without content
+        if (page.getTitle().length() == 0 || page.getText().length() == 0)
+            return extractor.getLinks();
+
+        // check whether the same content is emitted before, e.g. mirrors and print views
+        if (config.getDuplicatePolicy() != SimHashIndex.DuplicatePolicy.KEEP) {
+            long duplicateOf = frontier.findDuplicate(SimHashIndex.simHash(plaintext), hashCode);
+            if (duplicateOf >= 0) {
+                if (config.getDuplicatePolicy() == SimHashIndex.DuplicatePolicy.DROP)
+                    return extractor.getLinks();
+                page.setDuplicateOf(duplicateOf);
+            }
+        }
+
+        // pass it to the writer thread, wait if the writer falls behind
+        try {
+            results.publish(page);
+        } catch (InterruptedException e) {
+            // keep the interrupt for the loop of this thread, the links are still admitted
+            System.out.println("Worker thread failed to publish result!");
+            Thread.currentThread().interrupt();
+            return extractor.getLinks();
+        }
+
+        return extractor.getLinks();
+    }
+
+    /**
+     * Return the links of a page recorded by its last changed fetch
+     *
+     * @param url Link has been visited
+     * @return Absolute links, empty if none is recorded
+     */
+    private List<String> getStoredLinks(WebURL url) {
+        FetchMetadata metadata = frontier.getFetchMetadata() == null ? null : frontier.getFetchMetadata().get(url);
+        if (metadata == null || metadata.getOutlinks() == null)
+            return new ArrayList<>();
+        return metadata.getOutlinks();
+    }
 
-        return document.select("a[href]");
+    /**
+     * Return the absolute links in the order they appear
+     * Repeated links are kept, the frontier drops them by fingerprint
+     *
+     * @param links Extracted links from jsoup class
+     * @return Absolute links
+     */
+    private static List<String> toHrefs(Elements links) {
+        List<String> hrefs = new ArrayList<>(links.size());
+        for (Element link : links)
+            hrefs.add(link.attr("abs:href"));
+        return hrefs;
     }
 
     /**
      * Find suitable description text for the page
+     * Scan the text by index ranges instead of splitting it into words
      *
      * @return A String contains description
      */
     public String findDescription(String text) {
+        int descriptionLength = config.getDescriptionLength();
 
         // return whole page if it's too short
-        if (text.length() < config.getDescriptionLength())
+        if (text.length() < descriptionLength)
             return text;
 
-        String[] strings = text.split(" ");
-        String result = "";
-        StringBuilder substr = new StringBuilder();
-        int maxLength = 0;
+        StringBuilder substr = new StringBuilder(descriptionLength + 16);
+        int longestStart = 0;
+        int longestEnd = 0;
+        int start = 0;
 
-        // find the first several sentences in longest paragraph
+        // find the first longest paragraph
         // or add up the first several paragraphs when no one is long enough
-        for (String string : strings) {
-            if (string.length() > maxLength) {
-                result = string;
-                maxLength = result.length();
+        while (start <= text.length()) {
+            int end = text.indexOf(' ', start);
+            if (end < 0)
+                end = text.length();
+
+            int length = end - start;
+            if (length > longestEnd - longestStart) {
+                longestStart = start;
+                longestEnd = end;
             }
-            if (substr.length() < config.getDescriptionLength() && string.length() > 4)
-                substr.append(string).append(' ');
+            if (substr.length() < descriptionLength && length > 4)
+                substr.append(text, start, end).append(' ');
+
+            start = end + 1;
         }
 
-        // add up first several sentences in longest paragraph
-        if (result.length() > config.getDescriptionLength()) {
-            String[] strings1 = result.split(" ");
-            substr = new StringBuilder();
-            for (String string : strings1) {
-                if (substr.length() < config.getDescriptionLength())
-                    substr.append(string).append(' ');
-            }
+        // use the longest paragraph if it's long enough
+        if (longestEnd - longestStart > descriptionLength) {
+            substr.setLength(0);
+            substr.append(text, longestStart, longestEnd).append(' ');
         }
 
         return substr.toString();
@@ -2,16 +2,27 @@
  * Created by Lanslot on 2017/3/28.
  */
 public class WebPage {
-    private int hash;
+    private long hash;
+    private long duplicateOf = -1;
     private String url;
     private String title;
     private String description;
     private String text;
 
-    public int getHash() {
+    public long getHash() {
         return hash;
     }
 
+    /**
+     * Return the hash of the page this page is near duplicate to
+     * Return -1 if it's not a duplicate
+     *
+     * @return Hash of the original page
+     */
+    public long getDuplicateOf() {
+        return duplicateOf;
+    }
+
     public String getUrl() {
         return url;
     }
@@ -28,10 +39,14 @@ public class WebPage {
         return text;
     }
 
-    public void setHash(int hash) {
+    public void setHash(long hash) {
         this.hash = hash;
     }
 
+    public void setDuplicateOf(long duplicateOf) {
+        this.duplicateOf = duplicateOf;
+    }
+
     public void setUrl(String url) {
         this.url = url;
     }
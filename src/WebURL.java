@@ -6,13 +6,74 @@ public class WebURL {
     private String url;
     private short depth;
 
+    /**
+     * Fingerprint of the url, 0 until it's first used
+     */
+    private long fingerprint;
+
     public WebURL(String url, short depth) {
         this.url = url;
         this.depth = depth;
     }
 
+    /**
+     * Return the url
+     * Urls in the frontier are already canonical, see UrlCanonicalizer
+     *
+     * @return Url for website in String
+     */
     public String getUrl() {
-        return this.url.replace(" ","%20");
+        return this.url;
+    }
+
+    /**
+     * Return the 64-bit fingerprint of the url
+     * Computed once, since the url is checked against several dedup stores
+     *
+     * @return Fingerprint of the url
+     */
+    public long getFingerprint() {
+        if (fingerprint == 0)
+            fingerprint = UrlFingerprintSet.fingerprint(url);
+        return fingerprint;
+    }
+
+    /**
+     * Return the host of the url in lower case
+     * Return an empty string if the url has no host
+     *
+     * @return Host of the url
+     */
+    public String getHost() {
+        int start = url.indexOf("://");
+        start = start < 0 ? 0 : start + 3;
+
+        // find the end of authority
+        int end = start;
+        while (end < url.length()) {
+            char c = url.charAt(end);
+            if (c == '/' || c == '?' || c == '#')
+                break;
+            end++;
+        }
+
+        // strip user info
+        int at = url.lastIndexOf('@', end - 1);
+        if (at >= start)
+            start = at + 1;
+
+        // strip port, the host may be an ipv6 literal in brackets
+        if (start < end && url.charAt(start) == '[') {
+            int bracket = url.indexOf(']', start);
+            if (bracket >= 0 && bracket < end)
+                end = bracket + 1;
+        } else {
+            int colon = url.indexOf(':', start);
+            if (colon >= 0 && colon < end)
+                end = colon;
+        }
+
+        return url.substring(start, end).toLowerCase();
     }
 
     public short getDepth() {
@@ -21,6 +82,7 @@ public class WebURL {
 
     public void setUrl(String url) {
         this.url = url;
+        this.fingerprint = 0;
     }
 
 
@@ -1,8 +1,10 @@
 import com.sleepycat.je.*;
 
-import java.io.File;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -17,90 +19,195 @@ public class WorkQueueDB {
     private boolean resumable;
 
     /**
-     * The count of urls
+     * Database holding the sequence and the saved size of each queue
      */
-    private int pageNumber;
+    private Database statedb;
 
-    public WorkQueueDB(EnvironmentConfig envConfig, DatabaseConfig dbConfig, String path) {
-        pageNumber = 0;
-        resumable = envConfig.getTransactional();
+    /**
+     * Sequence for the next url put into the queue
+     * Urls with the same score are kept in FIFO order
+     * Stored in database, so it keeps growing across runs
+     */
+    private Sequence sequence;
+
+    /**
+     * Key of the size saved by closeDB
+     */
+    private DatabaseEntry sizeKey;
+
+    /**
+     * Number of urls in the queue
+     */
+    private long size;
+
+    /**
+     * Default constructor
+     * Create the work queue database according to user configs
+     *
+     * @param env      The environment shared with url database
+     * @param dbConfig The database config
+     * @param name     Name of the database
+     */
+    public WorkQueueDB(Environment env, DatabaseConfig dbConfig, String name) {
+        resumable = dbConfig.getTransactional();
         tupleBinding = new WebURLTupleBinding();
 
-        File file = new File(path);
-        this.env = new Environment(file, envConfig);
-        this.workdb = env.openDatabase(null, "workDB", dbConfig);
+        this.env = env;
+        this.workdb = env.openDatabase(null, name, dbConfig);
+
+        // reserve sequences in blocks, unused ones are skipped after restart
+        SequenceConfig sequenceConfig = new SequenceConfig();
+        sequenceConfig.setAllowCreate(true);
+        sequenceConfig.setCacheSize(1000);
+        sequenceConfig.setInitialValue(0);
+        this.statedb = env.openDatabase(null, "workQueueState", dbConfig);
+        this.sequence = statedb.openSequence(null, new DatabaseEntry(name.getBytes(StandardCharsets.UTF_8)), sequenceConfig);
+
+        // continue with the size saved by a clean close, count the queue only after a crash
+        // the saved size is removed until the next close, so a crash never leaves a stale one
+        this.sizeKey = new DatabaseEntry((name + ".size").getBytes(StandardCharsets.UTF_8));
+        DatabaseEntry value = new DatabaseEntry();
+        if (statedb.get(null, sizeKey, value, null) == OperationStatus.SUCCESS) {
+            size = ByteBuffer.wrap(value.getData(), value.getOffset(), value.getSize()).getLong();
+            Transaction tnx = getTransaction();
+            statedb.delete(tnx, sizeKey);
+            if (tnx != null)
+                tnx.commitSync();
+        } else {
+            size = workdb.count();
+        }
     }
 
     /**
-     * Close the database
+     * Close the database and save the size of the queue for next run
+     * The environment is closed by its owner
      */
     public void closeDB() {
+        if (statedb != null) {
+            synchronized (mutex) {
+                Transaction tnx = getTransaction();
+                statedb.put(tnx, sizeKey, new DatabaseEntry(ByteBuffer.allocate(8).putLong(size).array()));
+                if (tnx != null)
+                    tnx.commitSync();
+            }
+            sequence.close();
+            statedb.close();
+        }
         if (workdb != null)
             workdb.close();
-        if (env != null)
-            env.close();
     }
 
     /**
-     * Put url and its id into db
+     * Put url into the queue
+     * Urls with higher score will be polled first
      *
-     * @param url Url for website in String
+     * @param url   Url for website
+     * @param score Score of the url
      */
-    public void put(WebURL url) {
-        synchronized (mutex) {
-            Transaction tnx = getTransaction();
-            DatabaseEntry key = new DatabaseEntry(intToByte(pageNumber));
-            DatabaseEntry value = new DatabaseEntry();
-            tupleBinding.objectToEntry(url, value);
-
-            workdb.putNoOverwrite(tnx, key, value);
-            pageNumber++;
-            commit(tnx);
-        }
+    public void put(WebURL url, double score) {
+        putBatch(Collections.singletonList(newEntry(url, score)), null);
     }
 
+    /**
+     * Create an entry with the next sequence
+     *
+     * @param url   Url for website
+     * @param score Score of the url
+     * @return Entry ordered the same as in database
+     */
+    public QueueEntry newEntry(WebURL url, double score) {
+        return new QueueEntry(toKey(score, sequence.get(null, 1)), url);
+    }
 
-    public List<WebURL> getWebURLs(int size) {
+    /**
+     * Put entries into the queue in one transaction
+     * Entries written in an outer transaction are not counted until countCommitted is called
+     *
+     * @param entries Entries created by newEntry
+     * @param outer   Transaction to join, null to use its own one
+     */
+    public void putBatch(List<QueueEntry> entries, Transaction outer) {
         synchronized (mutex) {
-            Transaction tnx = getTransaction();
-            DatabaseEntry key = new DatabaseEntry();
+            Transaction tnx = outer == null ? getTransaction() : outer;
             DatabaseEntry value = new DatabaseEntry();
-            List<WebURL> urlList = new ArrayList<>();
 
-            try (Cursor cursor = workdb.openCursor(tnx, null)) {
-                OperationStatus result = cursor.getFirst(key, value, null);
-                int count = 0;
-                while ((count < size) && (result == OperationStatus.SUCCESS)) {
-                    if (value.getData().length > 0) {
-                        urlList.add(tupleBinding.entryToObject(value));
-                        count++;
-                    }
-                    result = cursor.getNext(key, value, null);
-                }
+            int count = 0;
+            for (QueueEntry entry : entries) {
+                tupleBinding.objectToEntry(entry.getUrl(), value);
+                if (workdb.putNoOverwrite(tnx, new DatabaseEntry(entry.getKey()), value) == OperationStatus.SUCCESS)
+                    count++;
             }
 
-            commit(tnx);
-            return urlList;
+            if (outer == null) {
+                commit(tnx);
+                size += count;
+            }
+        }
+    }
+
+    /**
+     * Count the entries of an outer transaction after it commits
+     *
+     * @param count Number of entries written
+     */
+    public void countCommitted(int count) {
+        synchronized (mutex) {
+            size += count;
+        }
+    }
+
+    /**
+     * Read and remove at most size urls with the highest scores
+     * Use one cursor pass in one transaction
+     *
+     * @param size How many urls should be retrieved
+     * @return Urls removed from the queue
+     */
+    public List<WebURL> pollBatch(int size) {
+        List<WebURL> urlList = new ArrayList<>();
+        for (QueueEntry entry : pollEntries(size)) {
+            urlList.add(entry.getUrl());
         }
+        return urlList;
     }
 
-    public void delete(int size) {
+    /**
+     * Read and remove at most size entries with the highest scores
+     * Use one cursor pass in one transaction
+     *
+     * @param size How many entries should be retrieved
+     * @return Entries removed from the queue, in order
+     */
+    public List<QueueEntry> pollEntries(int size) {
         synchronized (mutex) {
+            List<QueueEntry> entries = new ArrayList<>();
+            if (size <= 0 || this.size == 0)
+                return entries;
+
             Transaction tnx = getTransaction();
             DatabaseEntry key = new DatabaseEntry();
             DatabaseEntry value = new DatabaseEntry();
 
             try (Cursor cursor = workdb.openCursor(tnx, null)) {
                 OperationStatus result = cursor.getFirst(key, value, null);
-                int count = 0;
-                while ((count < size) && (result == OperationStatus.SUCCESS)) {
+                while ((entries.size() < size) && (result == OperationStatus.SUCCESS)) {
+                    // drop empty entries without counting them
+                    if (value.getData().length > 0) {
+                        byte[] bytes = Arrays.copyOfRange(key.getData(), key.getOffset(), key.getOffset() + key.getSize());
+                        entries.add(new QueueEntry(bytes, tupleBinding.entryToObject(value)));
+                    }
                     cursor.delete();
-                    count++;
+                    this.size--;
                     result = cursor.getNext(key, value, null);
                 }
+
+                // reached the end, nothing is left
+                if (result != OperationStatus.SUCCESS)
+                    this.size = 0;
             }
 
             commit(tnx);
+            return entries;
         }
     }
 
@@ -114,13 +221,28 @@ public class WorkQueueDB {
         }
     }
 
-    public byte[] intToByte(int in) {
-        return ByteBuffer.allocate(4).putInt(in).array();
+    /**
+     * Encode score and sequence into a key
+     * Keys are compared as unsigned bytes, so the score is flipped to sort in descending order
+     *
+     * @param score    Score of the url
+     * @param sequence Sequence of the url
+     * @return Key of the url
+     */
+    public static byte[] toKey(double score, long sequence) {
+        long bits = Double.doubleToLongBits(score == 0 ? 0.0 : score);
+        bits = bits < 0 ? ~bits : bits ^ Long.MIN_VALUE;
+        return ByteBuffer.allocate(16).putLong(~bits).putLong(sequence).array();
     }
 
-    public int getPageNumber(){
-        synchronized (mutex){
-            return pageNumber;
+    /**
+     * Return the number of urls waiting in the queue
+     *
+     * @return Size of the queue
+     */
+    public long getPageNumber() {
+        synchronized (mutex) {
+            return size;
         }
     }
 }